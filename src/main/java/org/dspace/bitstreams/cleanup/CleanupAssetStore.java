@@ -0,0 +1,395 @@
+/**
+ * 
+ */
+package org.dspace.bitstreams.cleanup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+import org.dspace.traverse.SqlUtil;
+
+/**
+ * Removes bitstreams that have been marked deleted, for example by
+ * DeleteItems in bulk mode. Their files are deleted from the asset stores by
+ * several threads, while the main thread deletes the rows of the bitstreams
+ * whose files are gone and commits them in batches. Files of registered
+ * bitstreams are left in place.
+ * <p>
+ * A file is kept while another bitstream that isn't deleted has the same
+ * internal ID. Like DSpace's own cleanup, files modified less than an hour
+ * ago (see --min-age) are kept, as they may still be being stored. With
+ * --ids, only the bitstreams listed in a file, e.g. the one written by
+ * DeleteItems, are removed.
+ * <p>
+ * A bitstream's row is only deleted after its file, so the cleanup can be
+ * interrupted and run again; files already deleted are counted as missing.
+ *
+ * @author Rahul Khanna
+ *
+ */
+public class CleanupAssetStore {
+
+	// internal IDs of registered bitstreams start with this
+	private static final String REGISTERED_FLAG = "-R";
+
+	// asset store directory levels, each named after two digits of the internal ID
+	private static final int DIRECTORY_LEVELS = 3;
+	private static final int DIGITS_PER_LEVEL = 2;
+
+	private static final int DELETED = 0;
+	private static final int MISSING = 1;
+	private static final int REGISTERED = 2;
+	private static final int FAILED = 3;
+	private static final int RECENT = 4;
+
+	private static Context c;
+	private static boolean isDryRun;
+	private static int nThreads = 4;
+	private static int batchSize = 1000;
+	private static long minAgeMillis = 60 * 60 * 1000L;
+
+	private static final AtomicLong nFilesDeleted = new AtomicLong();
+	private static final AtomicLong nBytesDeleted = new AtomicLong();
+	private static final AtomicLong nMissing = new AtomicLong();
+	private static final AtomicLong nRegistered = new AtomicLong();
+	private static final AtomicLong nRecent = new AtomicLong();
+	private static final AtomicLong nErrors = new AtomicLong();
+	private static long nRowsDeleted = 0;
+
+	public static int main(String[] args) {
+		Options options = createOptions();
+		CommandLine cmdLine;
+		try {
+			CommandLineParser parser = new PosixParser();
+			cmdLine = parser.parse(options, args);
+		} catch (ParseException e) {
+			e.printStackTrace();
+			return 1;
+		}
+
+		if (cmdLine.hasOption('h')) {
+			HelpFormatter helpFormatter = new HelpFormatter();
+			helpFormatter.printHelp(CleanupAssetStore.class.getName() + "\n", options);
+			return 0;
+		}
+		isDryRun = cmdLine.hasOption('n');
+		if (isDryRun) {
+			print("Cleanup will be performed in Dry Run mode.");
+		}
+		try {
+			if (cmdLine.hasOption('t')) {
+				nThreads = Integer.parseInt(cmdLine.getOptionValue('t'));
+			}
+			if (cmdLine.hasOption('b')) {
+				batchSize = Integer.parseInt(cmdLine.getOptionValue('b'));
+			}
+			if (cmdLine.hasOption('a')) {
+				minAgeMillis = Long.parseLong(cmdLine.getOptionValue('a')) * 60 * 1000L;
+			}
+		} catch (NumberFormatException e) {
+			print("Invalid number: %s", e.getMessage());
+			new HelpFormatter().printHelp(CleanupAssetStore.class.getName() + "\n", options);
+			return 1;
+		}
+		if (nThreads < 1 || batchSize < 1 || minAgeMillis < 0) {
+			print("Number of threads and batch size must be at least 1, and minimum age at least 0.");
+			return 1;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		try {
+			List<Integer> bitstreamIds = cmdLine.hasOption('i') ? readIds(cmdLine.getOptionValue('i')) : null;
+			c = new Context();
+			cleanup(executor, bitstreamIds);
+			c.complete();
+		} catch (SQLException | IOException | InterruptedException e) {
+			e.printStackTrace();
+			if (c != null && c.isValid()) {
+				c.abort();
+			}
+			return 1;
+		} finally {
+			executor.shutdownNow();
+		}
+		return nErrors.get() > 0 ? 1 : 0;
+	}
+
+	private static Options createOptions() {
+		Options options = new Options();
+		options.addOption("n", "dry-run", false, "only count the files and rows that would be deleted");
+		options.addOption("t", "threads", true, "number of threads deleting files (default 4)");
+		options.addOption("b", "batch", true, "number of bitstream rows deleted per transaction (default 1000)");
+		options.addOption("a", "min-age", true,
+				"only delete files last modified at least this many minutes ago (default 60)");
+		options.addOption("i", "ids", true,
+				"only remove the deleted bitstreams whose IDs are listed in this file, one per line");
+		options.addOption("h", "help", false, "display this help");
+		return options;
+	}
+
+	private static void cleanup(ExecutorService executor, List<Integer> bitstreamIds) throws SQLException,
+			InterruptedException {
+		List<DeletedBitstream> bitstreams = findDeletedBitstreams(bitstreamIds);
+		print("Found %d deleted bitstreams.", bitstreams.size());
+
+		CompletionService<DeletedBitstream> completionService = new ExecutorCompletionService<DeletedBitstream>(
+				executor);
+		long start = System.currentTimeMillis();
+		int nSubmitted = 0;
+		int nCompleted = 0;
+		// keep enough files queued to occupy the threads while a batch of rows is deleted
+		int maxInFlight = Math.max(batchSize, nThreads * 16);
+		List<Integer> removableIds = new ArrayList<Integer>(batchSize);
+		while (nCompleted < bitstreams.size()) {
+			while (nSubmitted < bitstreams.size() && nSubmitted - nCompleted < maxInFlight) {
+				final DeletedBitstream bitstream = bitstreams.get(nSubmitted++);
+				completionService.submit(new Callable<DeletedBitstream>() {
+					@Override
+					public DeletedBitstream call() {
+						deleteFile(bitstream);
+						return bitstream;
+					}
+				});
+			}
+
+			DeletedBitstream bitstream;
+			try {
+				bitstream = completionService.take().get();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException(e.getCause());
+			}
+			nCompleted++;
+			if (bitstream.status != FAILED && bitstream.status != RECENT) {
+				removableIds.add(bitstream.id);
+			}
+			if (removableIds.size() == batchSize) {
+				deleteRows(removableIds);
+				removableIds.clear();
+				printProgress(nCompleted, bitstreams.size(), start);
+			}
+		}
+		deleteRows(removableIds);
+
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		print("%s %d files (%d MB) and %d rows in %d ms: %.1f files/s. %d files missing, %d registered files kept,"
+				+ " %d recent files kept, %d errors.", isDryRun ? "Would delete" : "Deleted", nFilesDeleted.get(),
+				nBytesDeleted.get() / (1024 * 1024), nRowsDeleted, elapsed, nFilesDeleted.get() * 1000.0 / elapsed,
+				nMissing.get(), nRegistered.get(), nRecent.get(), nErrors.get());
+	}
+
+	/**
+	 * Reads the bitstream IDs in a file, one per line, in ascending order.
+	 */
+	private static List<Integer> readIds(String idsFile) throws IOException {
+		TreeSet<Integer> ids = new TreeSet<Integer>();
+		try (BufferedReader reader = Files.newBufferedReader(Paths.get(idsFile), StandardCharsets.UTF_8)) {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				if (line.trim().length() == 0) {
+					continue;
+				}
+				try {
+					ids.add(Integer.parseInt(line.trim()));
+				} catch (NumberFormatException e) {
+					throw new IOException(String.format("%s: invalid bitstream ID %s", idsFile, line.trim()), e);
+				}
+			}
+		}
+		return new ArrayList<Integer>(ids);
+	}
+
+	/**
+	 * Loads the bitstreams marked deleted that are no longer a bundle's primary
+	 * bitstream or a community or collection logo, and don't share their file
+	 * with a bitstream that isn't deleted. If bitstreamIds isn't null only
+	 * those bitstreams are loaded.
+	 */
+	private static List<DeletedBitstream> findDeletedBitstreams(List<Integer> bitstreamIds) throws SQLException {
+		String query = "SELECT bitstream_id, internal_id, store_number, size_bytes FROM bitstream WHERE deleted = '1'"
+				+ " AND NOT EXISTS (SELECT 1 FROM bundle WHERE bundle.primary_bitstream_id = bitstream.bitstream_id)"
+				+ " AND NOT EXISTS (SELECT 1 FROM community WHERE community.logo_bitstream_id = bitstream.bitstream_id)"
+				+ " AND NOT EXISTS (SELECT 1 FROM collection WHERE collection.logo_bitstream_id = bitstream.bitstream_id)"
+				+ " AND NOT EXISTS (SELECT 1 FROM bitstream b2 WHERE b2.internal_id = bitstream.internal_id"
+				+ " AND (b2.deleted = '0' OR b2.deleted IS NULL))";
+		List<DeletedBitstream> bitstreams = new ArrayList<DeletedBitstream>();
+		if (bitstreamIds == null) {
+			addDeletedBitstreams(bitstreams, query + " ORDER BY bitstream_id");
+			return bitstreams;
+		}
+		for (List<Integer> chunk : SqlUtil.chunks(bitstreamIds)) {
+			addDeletedBitstreams(bitstreams, query + " AND bitstream_id IN "
+					+ SqlUtil.placeholders(chunk.size()) + " ORDER BY bitstream_id", chunk.toArray());
+		}
+		return bitstreams;
+	}
+
+	private static void addDeletedBitstreams(List<DeletedBitstream> bitstreams, String query, Object... params)
+			throws SQLException {
+		TableRowIterator iterator = DatabaseManager.query(c, query, params);
+		try {
+			while (iterator.hasNext()) {
+				TableRow row = iterator.next();
+				DeletedBitstream bitstream = new DeletedBitstream();
+				bitstream.id = row.getIntColumn("bitstream_id");
+				bitstream.internalId = row.getStringColumn("internal_id");
+				bitstream.storeNumber = row.getIntColumn("store_number");
+				bitstream.size = row.isColumnNull("size_bytes") ? 0L : row.getLongColumn("size_bytes");
+				bitstreams.add(bitstream);
+			}
+		} finally {
+			iterator.close();
+		}
+	}
+
+	/**
+	 * Deletes a bitstream's file, and any asset store directories left empty,
+	 * recording the outcome in the bitstream. Called by the worker threads.
+	 */
+	private static void deleteFile(DeletedBitstream bitstream) {
+		if (bitstream.internalId == null || bitstream.internalId.startsWith(REGISTERED_FLAG)) {
+			bitstream.status = REGISTERED;
+			nRegistered.incrementAndGet();
+			return;
+		}
+		try {
+			Path file = getFile(bitstream);
+			if (isRecent(file)) {
+				bitstream.status = RECENT;
+				nRecent.incrementAndGet();
+				return;
+			}
+			boolean exists = isDryRun ? Files.exists(file) : Files.deleteIfExists(file);
+			if (exists) {
+				bitstream.status = DELETED;
+				nFilesDeleted.incrementAndGet();
+				nBytesDeleted.addAndGet(bitstream.size);
+				if (!isDryRun) {
+					deleteEmptyParents(file);
+				}
+			} else {
+				bitstream.status = MISSING;
+				nMissing.incrementAndGet();
+			}
+		} catch (IOException | IllegalStateException e) {
+			bitstream.status = FAILED;
+			nErrors.incrementAndGet();
+			print("Unable to delete file of bitstream %d: %s", bitstream.id, e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the path of a bitstream's file the same way
+	 * BitstreamStorageManager does.
+	 */
+	private static Path getFile(DeletedBitstream bitstream) {
+		String storeDir = bitstream.storeNumber == 0 ? ConfigurationManager.getProperty("assetstore.dir")
+				: ConfigurationManager.getProperty("assetstore.dir." + bitstream.storeNumber);
+		if (storeDir == null) {
+			throw new IllegalStateException("Asset store " + bitstream.storeNumber + " is not configured");
+		}
+		Path file = Paths.get(storeDir);
+		String internalId = bitstream.internalId;
+		for (int i = 0; i < DIRECTORY_LEVELS; i++) {
+			int digits = i * DIGITS_PER_LEVEL;
+			if (internalId.length() >= digits + DIGITS_PER_LEVEL) {
+				file = file.resolve(internalId.substring(digits, digits + DIGITS_PER_LEVEL));
+			}
+		}
+		return file.resolve(internalId);
+	}
+
+	/**
+	 * Returns whether a file was modified less than the minimum age ago, in
+	 * which case it may still be being stored.
+	 */
+	private static boolean isRecent(Path file) throws IOException {
+		try {
+			return Files.getLastModifiedTime(file).toMillis() > System.currentTimeMillis() - minAgeMillis;
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+	}
+
+	private static void deleteEmptyParents(Path file) {
+		Path dir = file.getParent();
+		for (int i = 0; i < DIRECTORY_LEVELS && dir != null; i++) {
+			try {
+				Files.delete(dir);
+			} catch (IOException e) {
+				// not empty, or removed by another thread
+				return;
+			}
+			dir = dir.getParent();
+		}
+	}
+
+	/**
+	 * Deletes the rows of bitstreams whose files have been deleted, with their
+	 * checksum history, and commits.
+	 */
+	private static void deleteRows(List<Integer> bitstreamIds) throws SQLException {
+		if (bitstreamIds.isEmpty()) {
+			return;
+		}
+		for (List<Integer> chunk : SqlUtil.chunks(bitstreamIds)) {
+			if (!isDryRun) {
+				Object[] ids = chunk.toArray();
+				String inList = SqlUtil.placeholders(chunk.size());
+				DatabaseManager.updateQuery(c, "DELETE FROM most_recent_checksum WHERE bitstream_id IN " + inList, ids);
+				DatabaseManager.updateQuery(c, "DELETE FROM checksum_history WHERE bitstream_id IN " + inList, ids);
+				DatabaseManager.updateQuery(c, "DELETE FROM bitstream WHERE bitstream_id IN " + inList, ids);
+			}
+			nRowsDeleted += chunk.size();
+		}
+		if (!isDryRun) {
+			c.commit();
+		}
+	}
+
+	private static void printProgress(int nCompleted, int nTotal, long start) {
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		print("%d/%d bitstreams: %d files deleted, %d missing, %d errors, %d rows deleted, %.1f files/s.",
+				nCompleted, nTotal, nFilesDeleted.get(), nMissing.get(), nErrors.get(), nRowsDeleted,
+				nCompleted * 1000.0 / elapsed);
+	}
+
+	private static void print(String str, Object... varargs) {
+		synchronized (System.out) {
+			System.out.println(String.format(str, varargs));
+		}
+	}
+
+	private static class DeletedBitstream {
+		private int id;
+		private String internalId;
+		private int storeNumber;
+		private long size;
+		private volatile int status;
+	}
+}
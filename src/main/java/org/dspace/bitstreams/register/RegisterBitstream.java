@@ -17,11 +17,11 @@ import org.dspace.authorize.AuthorizeException;
 import org.dspace.content.Bitstream;
 import org.dspace.content.BitstreamFormat;
 import org.dspace.content.Bundle;
-import org.dspace.content.FormatIdentifier;
 import org.dspace.content.Item;
 import org.dspace.content.WorkspaceItem;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
+import org.dspace.dsrun.LookupCache;
 import org.dspace.eperson.EPerson;
 import org.dspace.handle.HandleManager;
 
@@ -190,7 +190,7 @@ public class RegisterBitstream {
 		Bitstream bs = targetBundle.registerBitstream(assetstore, bitstreamPath);
 		int iLastSlash = bitstreamPath.lastIndexOf('/');
 		bs.setName(bitstreamPath.substring(iLastSlash + 1));
-		BitstreamFormat bf = FormatIdentifier.guessFormat(c, bs);
+		BitstreamFormat bf = LookupCache.forContext(c).guessFormat(bs);
 		bs.setFormat(bf);
 		bs.setDescription(description);
 		bs.update();
@@ -3,7 +3,15 @@
  */
 package org.dspace.dsrun;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.commons.cli.CommandLine;
@@ -21,7 +29,10 @@ import org.dspace.content.Metadatum;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.eperson.EPerson;
+import org.dspace.eperson.Group;
 import org.dspace.handle.HandleManager;
+import org.dspace.traverse.HandleResolver;
+import org.dspace.traverse.ItemEnumerator;
 
 /**
  * @author Rahul Khanna
@@ -37,6 +48,9 @@ public class DisplayItem {
 		Options cliOptions = new Options();
 		cliOptions.addOption(null, "handle", true, "handle of item");
 		cliOptions.addOption(null, "id", true, "id of item");
+		cliOptions.addOption(null, "export", false,
+				"write the details of every item in the community, collection or item handles specified as arguments, one JSON object per line");
+		cliOptions.addOption(null, "output", true, "with --export, write to the specified file instead of standard output");
 		cliOptions.addOption("h", "help", false, "display this help");
 
 		CommandLineParser cliParser = new PosixParser();
@@ -50,27 +64,35 @@ public class DisplayItem {
 		}
 		
 
+		boolean isExported = true;
 		try {
 			initContext();
 			
-			Item item = null;
-			if (cmdLine.hasOption("handle")) {
-				String handle = cmdLine.getOptionValue("handle");
-				DSpaceObject o = HandleManager.resolveToObject(context, handle);
-				if (o instanceof Item) {
-					item = (Item) o;
-				}
-			} else if (cmdLine.hasOption("id")) {
-				int id = Integer.parseInt(cmdLine.getOptionValue("id"));
-				item = (Item) Item.find(context, Constants.ITEM, id);
+			if (cmdLine.hasOption("export")) {
+				isExported = exportItems(cmdLine.getArgs(), cmdLine.getOptionValue("output"));
 			} else {
-				print("Handle or ID must be provided");
-			}
+				Item item = null;
+				if (cmdLine.hasOption("handle")) {
+					String handle = cmdLine.getOptionValue("handle");
+					DSpaceObject o = HandleManager.resolveToObject(context, handle);
+					if (o instanceof Item) {
+						item = (Item) o;
+					}
+				} else if (cmdLine.hasOption("id")) {
+					int id = Integer.parseInt(cmdLine.getOptionValue("id"));
+					item = (Item) Item.find(context, Constants.ITEM, id);
+				} else {
+					print("Handle or ID must be provided");
+				}
 
-			displayItem(item);
+				displayItem(item);
+			}
 		} finally {
 			closeContext();
 		}
+		if (!isExported) {
+			System.exit(1);
+		}
 	}
 	
 	private static void displayItem(Item item) {
@@ -99,12 +121,14 @@ public class DisplayItem {
 			int i = 1;
 			List<ResourcePolicy> itemPolicies = AuthorizeManager.getPolicies(context, item);
 			for (ResourcePolicy policy : itemPolicies) {
-				if (policy.getEPerson() != null) {
+				EPerson eperson = getEPerson(policy);
+				Group group = getGroup(policy);
+				if (eperson != null) {
 					print("\tItem Policy %d/%d: %d %s %s(%s)", i, itemPolicies.size(), policy.getID(),
-							policy.getActionText(), policy.getEPerson().getEmail(), policy.getEPerson().getNetid());
-				} else if (policy.getGroup() != null) {
+							policy.getActionText(), eperson.getEmail(), eperson.getNetid());
+				} else if (group != null) {
 					print("\tItem Policy %d/%d: %d %s %s", i, itemPolicies.size(), policy.getID(),
-							policy.getActionText(), policy.getGroup().getName());
+							policy.getActionText(), group.getName());
 				}
 				i++;
 			}
@@ -145,13 +169,14 @@ public class DisplayItem {
 						List<ResourcePolicy> bsPolicies = AuthorizeManager.getPolicies(context, bs);
 						int i = 1;
 						for (ResourcePolicy policy : bsPolicies) {
-							if (policy.getEPerson() != null) {
+							EPerson eperson = getEPerson(policy);
+							Group group = getGroup(policy);
+							if (eperson != null) {
 								print("\t\tBitstream Policy %d/%d: %d %s %s(%s)", i, bsPolicies.size(), policy.getID(),
-										policy.getActionText(), policy.getEPerson().getEmail(),
-										policy.getEPerson().getNetid());
-							} else if (policy.getGroup() != null) {
+										policy.getActionText(), eperson.getEmail(), eperson.getNetid());
+							} else if (group != null) {
 								print("\t\tBitstream Policy %d/%d: %d %s %s", i, bsPolicies.size(), policy.getID(),
-										policy.getActionText(), policy.getGroup().getName());
+										policy.getActionText(), group.getName());
 							}
 							i++;
 						}
@@ -165,13 +190,14 @@ public class DisplayItem {
 					List<ResourcePolicy> bundlePolicies = AuthorizeManager.getPolicies(context, bundle);
 					int i = 1;
 					for (ResourcePolicy policy : bundlePolicies) {
-						if (policy.getEPerson() != null) {
+						EPerson eperson = getEPerson(policy);
+						Group group = getGroup(policy);
+						if (eperson != null) {
 							print("\tBundle Policy %d/%d: %d %s %s(%s)", i, bundlePolicies.size(), policy.getID(),
-									policy.getActionText(), policy.getEPerson().getEmail(),
-									policy.getEPerson().getNetid());
-						} else if (policy.getGroup() != null) {
+									policy.getActionText(), eperson.getEmail(), eperson.getNetid());
+						} else if (group != null) {
 							print("\tBundle Policy %d/%d: %d %s %s", i, bundlePolicies.size(), policy.getID(),
-									policy.getActionText(), policy.getGroup().getName());
+									policy.getActionText(), group.getName());
 						}
 						i++;
 					}
@@ -186,6 +212,66 @@ public class DisplayItem {
 
 	}
 
+	/**
+	 * Exports every item beneath the handles, in item ID order. The handles are
+	 * resolved in batches of HandleResolver.BATCH_SIZE.
+	 * 
+	 * @return false if none of the handles could be resolved, in which case
+	 *         nothing is written
+	 */
+	private static boolean exportItems(String[] handles, String outputFile) throws SQLException, IOException {
+		ItemEnumerator enumerator = new ItemEnumerator(context);
+		HandleResolver resolver = new HandleResolver(context);
+		List<String> handleList = Arrays.asList(handles);
+		int nResolved = 0;
+		for (int from = 0; from < handleList.size(); from += HandleResolver.BATCH_SIZE) {
+			List<String> batch = handleList.subList(from,
+					Math.min(handleList.size(), from + HandleResolver.BATCH_SIZE));
+			for (HandleResolver.ResolvedHandle resolved : resolver.resolve(batch)) {
+				if (resolved.isResolved()) {
+					enumerator.add(resolved.getResourceType(), resolved.getResourceId());
+					nResolved++;
+				} else {
+					System.err.format("Unable to resolve handle %s%n", resolved.getHandle());
+				}
+			}
+		}
+		if (nResolved == 0) {
+			System.err.format("None of the %d handles could be resolved; nothing exported.%n", handles.length);
+			return false;
+		}
+		int[] itemIds = enumerator.enumerateItems();
+
+		long start = System.currentTimeMillis();
+		Writer writer = outputFile != null ? Files.newBufferedWriter(Paths.get(outputFile), StandardCharsets.UTF_8)
+				: new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+		ItemExporter exporter = new ItemExporter(context, writer);
+		try {
+			exporter.export(itemIds);
+		} finally {
+			if (outputFile != null) {
+				writer.close();
+			} else {
+				writer.flush();
+			}
+		}
+		System.err.format("Exported %d items in %d ms.%n", exporter.getExportedCount(),
+				System.currentTimeMillis() - start);
+		return true;
+	}
+
+	/**
+	 * Returns the e-person a policy applies to, looked up through the cache as
+	 * the same e-people appear in many policies.
+	 */
+	private static EPerson getEPerson(ResourcePolicy policy) throws SQLException {
+		return policy.getEPersonID() != -1 ? LookupCache.forContext(context).findEPerson(policy.getEPersonID()) : null;
+	}
+
+	private static Group getGroup(ResourcePolicy policy) throws SQLException {
+		return policy.getGroupID() != -1 ? LookupCache.forContext(context).findGroup(policy.getGroupID()) : null;
+	}
+
 	private static void initContext() throws SQLException {
 		context = new Context(Context.READ_ONLY);
 		context.turnOffAuthorisationSystem();
@@ -0,0 +1,297 @@
+/**
+ * 
+ */
+package org.dspace.dsrun;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.traverse.JsonUtil;
+import org.dspace.traverse.SqlUtil;
+
+/**
+ * Writes the details DisplayItem shows for an item - metadata, bundles,
+ * bitstreams and policies - for many items, as one JSON object per line.
+ * <p>
+ * Items are read in batches. For each batch the items, their metadata,
+ * bundles, bitstreams and policies are loaded with a fixed number of
+ * set-based queries, written, and discarded, so memory use doesn't depend on
+ * the number of items exported.
+ *
+ * @author Rahul Khanna
+ *
+ */
+public class ItemExporter {
+
+	public static final int BATCH_SIZE = 500;
+
+	private final Context c;
+	private final Writer writer;
+	private final SimpleDateFormat dateFormat;
+
+	// schema.element.qualifier of each metadata field, by ID
+	private Map<Integer, String> fieldNames = null;
+
+	private int nExported = 0;
+
+	public ItemExporter(Context c, Writer writer) {
+		this.c = c;
+		this.writer = writer;
+		this.dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		this.dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+	}
+
+	public int getExportedCount() {
+		return nExported;
+	}
+
+	/**
+	 * Exports the items with the specified IDs, in batches, in the order
+	 * specified.
+	 */
+	public void export(int[] itemIds) throws SQLException, IOException {
+		for (int from = 0; from < itemIds.length; from += BATCH_SIZE) {
+			int to = Math.min(itemIds.length, from + BATCH_SIZE);
+			List<Integer> batch = new ArrayList<Integer>(to - from);
+			for (int i = from; i < to; i++) {
+				batch.add(itemIds[i]);
+			}
+			exportBatch(batch);
+		}
+	}
+
+	private void exportBatch(List<Integer> itemIds) throws SQLException, IOException {
+		Map<Integer, Node> items = loadItems(itemIds);
+		Map<Integer, Node> bundles = loadBundles(items);
+		Map<Integer, Node> bitstreams = loadBitstreams(bundles);
+
+		loadMetadata(Constants.ITEM, items);
+		loadMetadata(Constants.BUNDLE, bundles);
+		loadMetadata(Constants.BITSTREAM, bitstreams);
+		loadPolicies(Constants.ITEM, items);
+		loadPolicies(Constants.BUNDLE, bundles);
+		loadPolicies(Constants.BITSTREAM, bitstreams);
+
+		for (Integer itemId : itemIds) {
+			Node item = items.get(itemId);
+			if (item != null) {
+				writer.write(toJson(item));
+				writer.write('\n');
+				nExported++;
+			}
+		}
+		writer.flush();
+	}
+
+	private Map<Integer, Node> loadItems(List<Integer> itemIds) throws SQLException {
+		Map<Integer, Node> items = new HashMap<Integer, Node>();
+		for (TableRow row : SqlUtil.queryIn(c,
+				"SELECT item.item_id, item.in_archive, item.withdrawn, item.discoverable,"
+				+ " item.last_modified, handle.handle, eperson.email AS submitter, owner.handle AS owner_handle"
+				+ " FROM item"
+				+ " LEFT JOIN handle ON handle.resource_type_id = ? AND handle.resource_id = item.item_id"
+				+ " LEFT JOIN handle owner ON owner.resource_type_id = ? AND owner.resource_id = item.owning_collection"
+				+ " LEFT JOIN eperson ON eperson.eperson_id = item.submitter_id"
+				+ " WHERE item.item_id IN %s", Arrays.<Object> asList(Constants.ITEM, Constants.COLLECTION), itemIds)) {
+			Node item = new Node(row.getIntColumn("item_id"));
+			item.fields.put("handle", quote(row.getStringColumn("handle")));
+			item.fields.put("lastModified", quote(formatDate(row.getDateColumn("last_modified"))));
+			item.fields.put("archived", String.valueOf(row.getBooleanColumn("in_archive")));
+			item.fields.put("withdrawn", String.valueOf(row.getBooleanColumn("withdrawn")));
+			item.fields.put("discoverable", String.valueOf(row.getBooleanColumn("discoverable")));
+			item.fields.put("submitter", quote(row.getStringColumn("submitter")));
+			item.fields.put("owningCollection", quote(row.getStringColumn("owner_handle")));
+			items.put(item.id, item);
+		}
+		return items;
+	}
+
+	/**
+	 * Loads the bundles of the items, in bundle ID order within each item.
+	 */
+	private Map<Integer, Node> loadBundles(Map<Integer, Node> items) throws SQLException {
+		Map<Integer, Node> bundles = new LinkedHashMap<Integer, Node>();
+		for (TableRow row : SqlUtil.queryIn(c,
+				"SELECT item2bundle.item_id, bundle.bundle_id, bundle.primary_bitstream_id"
+				+ " FROM item2bundle JOIN bundle ON bundle.bundle_id = item2bundle.bundle_id"
+				+ " WHERE item2bundle.item_id IN %s ORDER BY item2bundle.item_id, bundle.bundle_id",
+				new ArrayList<Object>(), new ArrayList<Integer>(items.keySet()))) {
+			Node bundle = new Node(row.getIntColumn("bundle_id"));
+			bundle.primaryBitstreamId = row.isColumnNull("primary_bitstream_id") ? -1
+					: row.getIntColumn("primary_bitstream_id");
+			items.get(row.getIntColumn("item_id")).children.add(bundle);
+			bundles.put(bundle.id, bundle);
+		}
+		return bundles;
+	}
+
+	/**
+	 * Loads the bitstreams of the bundles, with their formats, in bitstream
+	 * order within each bundle. A bitstream in several bundles is listed in
+	 * each.
+	 */
+	private Map<Integer, Node> loadBitstreams(Map<Integer, Node> bundles) throws SQLException {
+		Map<Integer, Node> bitstreams = new HashMap<Integer, Node>();
+		for (TableRow row : SqlUtil.queryIn(c,
+				"SELECT bundle2bitstream.bundle_id, bitstream.bitstream_id, bitstream.sequence_id,"
+				+ " bitstream.size_bytes, bitstream.checksum, bitstream.checksum_algorithm,"
+				+ " bitstreamformatregistry.mimetype, bitstreamformatregistry.short_description"
+				+ " FROM bundle2bitstream JOIN bitstream ON bitstream.bitstream_id = bundle2bitstream.bitstream_id"
+				+ " LEFT JOIN bitstreamformatregistry"
+				+ " ON bitstreamformatregistry.bitstream_format_id = bitstream.bitstream_format_id"
+				+ " WHERE bundle2bitstream.bundle_id IN %s"
+				+ " ORDER BY bundle2bitstream.bundle_id, bundle2bitstream.bitstream_order, bitstream.bitstream_id",
+				new ArrayList<Object>(), new ArrayList<Integer>(bundles.keySet()))) {
+			Node bundle = bundles.get(row.getIntColumn("bundle_id"));
+			int bitstreamId = row.getIntColumn("bitstream_id");
+			Node bitstream = bitstreams.get(bitstreamId);
+			if (bitstream == null) {
+				bitstream = new Node(bitstreamId);
+				bitstream.fields.put("sequenceId",
+						row.isColumnNull("sequence_id") ? "null" : String.valueOf(row.getIntColumn("sequence_id")));
+				bitstream.fields.put("size", String.valueOf(row.getLongColumn("size_bytes")));
+				bitstream.fields.put("mimeType", quote(row.getStringColumn("mimetype")));
+				bitstream.fields.put("format", quote(row.getStringColumn("short_description")));
+				bitstream.fields.put("checksumAlgorithm", quote(row.getStringColumn("checksum_algorithm")));
+				bitstream.fields.put("checksum", quote(row.getStringColumn("checksum")));
+				bitstreams.put(bitstreamId, bitstream);
+			}
+			bundle.children.add(bitstream);
+		}
+		return bitstreams;
+	}
+
+	private void loadMetadata(int resourceType, Map<Integer, Node> resources) throws SQLException {
+		Map<Integer, String> fieldNames = getFieldNames();
+		for (TableRow row : SqlUtil.queryIn(c,
+				"SELECT resource_id, metadata_field_id, text_value, text_lang, authority,"
+				+ " confidence FROM metadatavalue WHERE resource_type_id = ? AND resource_id IN %s"
+				+ " ORDER BY resource_id, metadata_field_id, place", Arrays.<Object> asList(resourceType),
+				new ArrayList<Integer>(resources.keySet()))) {
+			Node resource = resources.get(row.getIntColumn("resource_id"));
+			String field = fieldNames.get(row.getIntColumn("metadata_field_id"));
+			String value = row.getStringColumn("text_value");
+			// bundle and bitstream names are their first title, as DisplayItem shows them
+			if (resourceType != Constants.ITEM && "dc.title".equals(field) && !resource.fields.containsKey("name")) {
+				resource.fields.put("name", quote(value));
+			}
+			resource.metadata.add(String.format(
+					"{\"field\":%s,\"value\":%s,\"language\":%s,\"authority\":%s,\"confidence\":%s}",
+					quote(field), quote(value), quote(row.getStringColumn("text_lang")),
+					quote(row.getStringColumn("authority")),
+					row.isColumnNull("confidence") ? "null" : String.valueOf(row.getIntColumn("confidence"))));
+		}
+	}
+
+	private void loadPolicies(int resourceType, Map<Integer, Node> resources) throws SQLException {
+		for (TableRow row : SqlUtil.queryIn(c,
+				"SELECT resourcepolicy.policy_id, resourcepolicy.resource_id,"
+				+ " resourcepolicy.action_id, resourcepolicy.start_date, resourcepolicy.end_date,"
+				+ " epersongroup.name AS group_name, eperson.email, eperson.netid"
+				+ " FROM resourcepolicy"
+				+ " LEFT JOIN epersongroup ON epersongroup.eperson_group_id = resourcepolicy.epersongroup_id"
+				+ " LEFT JOIN eperson ON eperson.eperson_id = resourcepolicy.eperson_id"
+				+ " WHERE resourcepolicy.resource_type_id = ? AND resourcepolicy.resource_id IN %s"
+				+ " ORDER BY resourcepolicy.resource_id, resourcepolicy.policy_id",
+				Arrays.<Object> asList(resourceType), new ArrayList<Integer>(resources.keySet()))) {
+			int actionId = row.getIntColumn("action_id");
+			String action = actionId >= 0 && actionId < Constants.actionText.length ? Constants.actionText[actionId]
+					: String.valueOf(actionId);
+			resources.get(row.getIntColumn("resource_id")).policies.add(String.format(
+					"{\"id\":%d,\"action\":%s,\"group\":%s,\"eperson\":%s,\"netid\":%s,\"startDate\":%s,\"endDate\":%s}",
+					row.getIntColumn("policy_id"), quote(action), quote(row.getStringColumn("group_name")),
+					quote(row.getStringColumn("email")), quote(row.getStringColumn("netid")),
+					quote(formatDate(row.getDateColumn("start_date"))),
+					quote(formatDate(row.getDateColumn("end_date")))));
+		}
+	}
+
+	private Map<Integer, String> getFieldNames() throws SQLException {
+		if (fieldNames == null) {
+			fieldNames = SqlUtil.getFieldNames(c);
+		}
+		return fieldNames;
+	}
+
+	private String toJson(Node item) {
+		StringBuilder sb = new StringBuilder(1024);
+		sb.append("{\"id\":").append(item.id);
+		appendFields(sb, item);
+		sb.append(",\"bundles\":[");
+		for (int i = 0; i < item.children.size(); i++) {
+			Node bundle = item.children.get(i);
+			sb.append(i > 0 ? ",{\"id\":" : "{\"id\":").append(bundle.id);
+			appendFields(sb, bundle);
+			sb.append(",\"bitstreams\":[");
+			for (int j = 0; j < bundle.children.size(); j++) {
+				Node bitstream = bundle.children.get(j);
+				sb.append(j > 0 ? ",{\"id\":" : "{\"id\":").append(bitstream.id);
+				sb.append(",\"primary\":").append(bitstream.id == bundle.primaryBitstreamId);
+				appendFields(sb, bitstream);
+				sb.append('}');
+			}
+			sb.append("]}");
+		}
+		sb.append("]}");
+		return sb.toString();
+	}
+
+	/**
+	 * Appends a resource's fields, metadata and policies.
+	 */
+	private void appendFields(StringBuilder sb, Node resource) {
+		for (Map.Entry<String, String> field : resource.fields.entrySet()) {
+			sb.append(',').append(JsonUtil.quote(field.getKey())).append(':').append(field.getValue());
+		}
+		appendArray(sb, "metadata", resource.metadata);
+		appendArray(sb, "policies", resource.policies);
+	}
+
+	private void appendArray(StringBuilder sb, String name, List<String> values) {
+		sb.append(",\"").append(name).append("\":[");
+		for (int i = 0; i < values.size(); i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append(values.get(i));
+		}
+		sb.append(']');
+	}
+
+	private String formatDate(Date date) {
+		return date != null ? dateFormat.format(date) : null;
+	}
+
+	private static String quote(String str) {
+		return str != null ? JsonUtil.quote(str) : "null";
+	}
+
+	/**
+	 * An item, bundle or bitstream being exported. Fields hold JSON values.
+	 */
+	private static class Node {
+		private final int id;
+		private int primaryBitstreamId = -1;
+		private final Map<String, String> fields = new LinkedHashMap<String, String>();
+		private final List<String> metadata = new ArrayList<String>();
+		private final List<String> policies = new ArrayList<String>();
+		private final List<Node> children = new ArrayList<Node>();
+
+		public Node(int id) {
+			this.id = id;
+		}
+	}
+}
@@ -3,6 +3,11 @@
  */
 package org.dspace.dsrun;
 
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.util.Objects;
 import java.util.regex.Pattern;
@@ -37,6 +42,10 @@ public class ItemMetadataValue {
 		cliOptions.addOption(null, "clear", false,
 				"delete existing values for specified field before adding value making the value provided the only value for the specified field");
 
+		cliOptions.addOption(null, "file", true,
+				"apply the changes in the specified CSV or TSV file, or standard input if '-', with rows of: handle|id, field, value, append|replace");
+		cliOptions.addOption(null, "commit-every", true, "with --file, commit after every N items (default 100)");
+
 		cliOptions.addOption("n", "dry-run", false, "dry run - changes saved");
 		cliOptions.addOption("h", "help", false, "display this help");
 
@@ -79,6 +88,22 @@ public class ItemMetadataValue {
 			field = new Field(cmdLine.getOptionValue("field"));
 		}
 
+		if (cmdLine.hasOption("file")) {
+			int commitEvery;
+			try {
+				commitEvery = Integer.parseInt(cmdLine.getOptionValue("commit-every", "100"));
+			} catch (NumberFormatException e) {
+				commitEvery = 0;
+			}
+			if (commitEvery < 1) {
+				print("--commit-every must be a number of at least 1.");
+				printHelp(cliOptions);
+				return;
+			}
+			processFile(cmdLine.getOptionValue("file"), commitEvery, isDryRun);
+			return;
+		}
+
 		try {
 			initContext();
 
@@ -128,6 +153,30 @@ public class ItemMetadataValue {
 		}
 	}
 
+	/**
+	 * Applies the changes in a file using a single Context, committing after
+	 * every N items.
+	 */
+	private static void processFile(String file, int commitEvery, boolean isDryRun) throws Exception {
+		boolean isStdin = file.equals("-");
+		BufferedReader reader = isStdin ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+				: Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8);
+		try {
+			initContext();
+			MetadataBatchEditor editor = new MetadataBatchEditor(c, isDryRun, commitEvery);
+			editor.process(reader);
+			if (isDryRun) {
+				c.abort();
+				c = null;
+			}
+		} finally {
+			if (!isStdin) {
+				reader.close();
+			}
+			closeContext();
+		}
+	}
+
 	private static void initContext() throws SQLException {
 		c = new Context();
 		c.turnOffAuthorisationSystem();
@@ -153,7 +202,7 @@ public class ItemMetadataValue {
 		System.out.println();
 	}
 
-	private static class Field {
+	static class Field {
 		private final String schema;
 		private final String element;
 		private final String qualifier;
@@ -176,6 +225,18 @@ public class ItemMetadataValue {
 			return str.trim();
 		}
 
+		public String getSchema() {
+			return schema;
+		}
+
+		public String getElement() {
+			return element;
+		}
+
+		public String getQualifier() {
+			return qualifier;
+		}
+
 		@Override
 		public String toString() {
 			if (qualifier != null) {
@@ -0,0 +1,197 @@
+/**
+ * 
+ */
+package org.dspace.dsrun;
+
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dspace.content.Bitstream;
+import org.dspace.content.BitstreamFormat;
+import org.dspace.content.FormatIdentifier;
+import org.dspace.core.Context;
+import org.dspace.eperson.EPerson;
+import org.dspace.eperson.Group;
+
+/**
+ * Caches reference objects that tools look up over and over again: groups by
+ * name and ID, e-people by ID, and bitstream formats by file extension. DSpace
+ * objects belong to the Context they were loaded with, so there is one cache
+ * per Context, holding at most MAX_SIZE objects with the least recently used
+ * dropped first. A Context's cache must be invalidated when its object cache
+ * is cleared, which committing doesn't do; use commit, rollback and clearCache
+ * here instead of calling the Context directly. The caches of Contexts that
+ * have been completed or aborted are removed whenever a cache is created for a
+ * new Context. Hit and miss counts are kept across all Contexts.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public final class LookupCache {
+
+	private static final int MAX_SIZE = 1000;
+
+	// cached objects refer to their Context, so a WeakHashMap wouldn't release them
+	private static final Map<Context, LookupCache> caches = new IdentityHashMap<Context, LookupCache>();
+
+	private static final AtomicLong nHits = new AtomicLong();
+	private static final AtomicLong nMisses = new AtomicLong();
+
+	private final Context c;
+	private final Map<String, Object> objects = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+			return size() > MAX_SIZE;
+		}
+	};
+
+	private LookupCache(Context c) {
+		this.c = c;
+	}
+
+	/**
+	 * Returns the cache for the specified Context, creating it if necessary. A
+	 * cache must only be used by the thread using its Context.
+	 */
+	public static LookupCache forContext(Context c) {
+		synchronized (caches) {
+			LookupCache cache = caches.get(c);
+			if (cache == null) {
+				removeClosed();
+				cache = new LookupCache(c);
+				caches.put(c, cache);
+			}
+			return cache;
+		}
+	}
+
+	private static void removeClosed() {
+		Iterator<Context> contexts = caches.keySet().iterator();
+		while (contexts.hasNext()) {
+			if (!contexts.next().isValid()) {
+				contexts.remove();
+			}
+		}
+	}
+
+	/**
+	 * Commits the Context. Its cache stays valid, as the objects in it are
+	 * still in the Context's object cache.
+	 */
+	public static void commit(Context c) throws SQLException {
+		c.commit();
+	}
+
+	/**
+	 * Clears the Context's object cache and invalidates its lookup cache.
+	 */
+	public static void clearCache(Context c) throws SQLException {
+		c.clearCache();
+		invalidate(c);
+	}
+
+	/**
+	 * Rolls back the Context's transaction and discards the events queued for
+	 * the changes rolled back, so that the next commit doesn't dispatch them.
+	 * The object cache is cleared too, as its objects may hold the changes.
+	 */
+	public static void rollback(Context c) throws SQLException {
+		c.getDBConnection().rollback();
+		if (c.getEvents() != null) {
+			c.getEvents().clear();
+		}
+		clearCache(c);
+	}
+
+	public static void invalidate(Context c) {
+		LookupCache cache;
+		synchronized (caches) {
+			cache = caches.get(c);
+		}
+		if (cache != null) {
+			cache.objects.clear();
+		}
+	}
+
+	public static long getHitCount() {
+		return nHits.get();
+	}
+
+	public static long getMissCount() {
+		return nMisses.get();
+	}
+
+	public Group findGroupByName(String name) throws SQLException {
+		String key = "group-name:" + name;
+		Group group = (Group) get(key);
+		if (group == null) {
+			group = Group.findByName(c, name);
+			put(key, group);
+		}
+		return group;
+	}
+
+	public Group findGroup(int groupId) throws SQLException {
+		String key = "group:" + groupId;
+		Group group = (Group) get(key);
+		if (group == null) {
+			group = Group.find(c, groupId);
+			put(key, group);
+		}
+		return group;
+	}
+
+	public EPerson findEPerson(int epersonId) throws SQLException {
+		String key = "eperson:" + epersonId;
+		EPerson eperson = (EPerson) get(key);
+		if (eperson == null) {
+			eperson = EPerson.find(c, epersonId);
+			put(key, eperson);
+		}
+		return eperson;
+	}
+
+	/**
+	 * Guesses the format of a bitstream using FormatIdentifier, reusing the
+	 * format already guessed for another bitstream with the same file
+	 * extension. Bitstreams without an extension aren't cached.
+	 */
+	public BitstreamFormat guessFormat(Bitstream bitstream) throws SQLException {
+		String name = bitstream.getName();
+		int iDot = name != null ? name.lastIndexOf('.') : -1;
+		if (iDot < 0 || iDot == name.length() - 1) {
+			return FormatIdentifier.guessFormat(c, bitstream);
+		}
+
+		String key = "format-ext:" + name.substring(iDot + 1).toLowerCase();
+		BitstreamFormat format = (BitstreamFormat) get(key);
+		if (format == null) {
+			format = FormatIdentifier.guessFormat(c, bitstream);
+			put(key, format);
+		}
+		return format;
+	}
+
+	private Object get(String key) {
+		Object o = objects.get(key);
+		if (o != null) {
+			nHits.incrementAndGet();
+		} else {
+			nMisses.incrementAndGet();
+		}
+		return o;
+	}
+
+	private void put(String key, Object o) {
+		// objects that don't exist aren't cached, so that they are found once created
+		if (o != null) {
+			objects.put(key, o);
+		}
+	}
+}
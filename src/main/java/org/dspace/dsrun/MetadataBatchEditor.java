@@ -0,0 +1,292 @@
+/**
+ * 
+ */
+package org.dspace.dsrun;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.content.DSpaceObject;
+import org.dspace.content.Item;
+import org.dspace.core.Context;
+import org.dspace.handle.HandleManager;
+import org.dspace.traverse.SqlUtil;
+
+/**
+ * Applies metadata changes read from a CSV or TSV file, one change per row:
+ * <p>
+ * {@code handle|id, field, value, append|replace}
+ * <p>
+ * Rows for the same item are applied together with a single
+ * updateMetadata(), so they must be next to each other in the file; rows for
+ * an item that was already updated by an earlier group of rows are reported
+ * and skipped, so they can't undo that group's replace rows. A
+ * field is cleared by the first replace row for it in each group, so several
+ * replace rows for one field leave all their values. A replace row with an
+ * empty value just clears the field. Lines starting with # and a header row
+ * are ignored.
+ * <p>
+ * Changes are committed after every N items. Rows that can't be applied are
+ * reported with their line numbers and skipped. If an item can't be updated
+ * the uncommitted items are rolled back and reported.
+ *
+ * @author Rahul Khanna
+ *
+ */
+public class MetadataBatchEditor {
+
+	private final Context c;
+	private final boolean isDryRun;
+	private final int commitEvery;
+
+	// schema.element.qualifier of every field in the registry
+	private Set<String> registeredFields = null;
+	private Character delimiter = null;
+
+	private final List<Row> group = new ArrayList<Row>();
+	private final List<String> uncommittedItems = new ArrayList<String>();
+	// IDs of the items whose group of rows has been applied
+	private final Set<Integer> appliedItemIds = new HashSet<Integer>();
+
+	private long start;
+	private int nRows = 0;
+	private int nRowErrors = 0;
+	private int nItems = 0;
+	private int nItemErrors = 0;
+
+	public MetadataBatchEditor(Context c, boolean isDryRun, int commitEvery) {
+		this.c = c;
+		this.isDryRun = isDryRun;
+		this.commitEvery = commitEvery;
+	}
+
+	public int getRowErrorCount() {
+		return nRowErrors;
+	}
+
+	public int getItemErrorCount() {
+		return nItemErrors;
+	}
+
+	/**
+	 * Reads and applies every row.
+	 */
+	public void process(BufferedReader reader) throws IOException, SQLException {
+		start = System.currentTimeMillis();
+		int lineNo = 0;
+		for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+			lineNo++;
+			if (line.trim().length() == 0 || line.startsWith("#")) {
+				continue;
+			}
+			boolean isFirstLine = delimiter == null;
+			if (isFirstLine) {
+				delimiter = line.indexOf('\t') >= 0 ? '\t' : ',';
+			}
+			List<String> columns = split(line, delimiter);
+			if (isFirstLine && isHeader(columns.get(0))) {
+				continue;
+			}
+
+			nRows++;
+			Row row;
+			try {
+				row = parseRow(lineNo, columns);
+			} catch (IllegalArgumentException e) {
+				rowError(lineNo, e.getMessage());
+				continue;
+			}
+			if (!group.isEmpty() && !group.get(0).itemKey.equals(row.itemKey)) {
+				applyGroup();
+			}
+			group.add(row);
+		}
+		applyGroup();
+		commit();
+
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		print("%s %d items from %d rows in %d ms (%.1f items/s). %d row errors, %d item errors.",
+				isDryRun ? "Checked" : "Updated", nItems - nItemErrors, nRows, elapsed, nItems * 1000.0 / elapsed,
+				nRowErrors, nItemErrors);
+	}
+
+	private Row parseRow(int lineNo, List<String> columns) throws IllegalArgumentException, SQLException {
+		if (columns.size() < 3 || columns.size() > 4) {
+			throw new IllegalArgumentException(String.format("expected 3 or 4 columns, found %d", columns.size()));
+		}
+		Row row = new Row();
+		row.lineNo = lineNo;
+		row.itemKey = columns.get(0).trim();
+		row.field = new ItemMetadataValue.Field(columns.get(1));
+		row.value = columns.get(2);
+		String mode = columns.size() == 4 ? columns.get(3).trim().toLowerCase() : "append";
+		if (mode.equals("replace")) {
+			row.isReplace = true;
+		} else if (!mode.equals("append")) {
+			throw new IllegalArgumentException(String.format("mode must be append or replace, not %s", mode));
+		}
+
+		boolean isWildcard = "*".equals(row.field.getQualifier());
+		if (isWildcard && row.value.length() > 0) {
+			throw new IllegalArgumentException(String.format("a value can't be added to %s", row.field));
+		}
+		if (!isWildcard && !getRegisteredFields().contains(row.field.toString())) {
+			throw new IllegalArgumentException(String.format("%s isn't in the metadata registry", row.field));
+		}
+		return row;
+	}
+
+	/**
+	 * Applies the rows for a single item and updates its metadata once.
+	 */
+	private void applyGroup() throws SQLException {
+		if (group.isEmpty()) {
+			return;
+		}
+		String itemKey = group.get(0).itemKey;
+		try {
+			Item item = findItem(itemKey);
+			if (item == null) {
+				for (Row row : group) {
+					rowError(row.lineNo, String.format("item %s not found", itemKey));
+				}
+				return;
+			}
+			if (!appliedItemIds.add(item.getID())) {
+				for (Row row : group) {
+					rowError(row.lineNo, String.format("item %s was already updated by earlier rows; rows for an item"
+							+ " must be next to each other", itemKey));
+				}
+				return;
+			}
+
+			Set<String> clearedFields = new HashSet<String>();
+			for (Row row : group) {
+				ItemMetadataValue.Field field = row.field;
+				if (row.isReplace && clearedFields.add(field.toString())) {
+					item.clearMetadata(field.getSchema(), field.getElement(), field.getQualifier(), null);
+				}
+				if (row.value.length() > 0) {
+					item.addMetadata(field.getSchema(), field.getElement(), field.getQualifier(), null, row.value);
+				}
+				print("%s(%s): %s %s=%s", item.getHandle(), item.getID(), row.isReplace ? "REPLACE" : "APPEND", field,
+						row.value);
+			}
+
+			nItems++;
+			if (!isDryRun) {
+				item.updateMetadata();
+			}
+			uncommittedItems.add(item.getHandle() != null ? item.getHandle() : itemKey);
+			if (uncommittedItems.size() >= commitEvery) {
+				commit();
+			}
+		} catch (SQLException | AuthorizeException e) {
+			print("Unable to update item %s: %s. Rolling back %d uncommitted items: %s", itemKey, e.getMessage(),
+					uncommittedItems.size(), uncommittedItems);
+			nItemErrors += uncommittedItems.size() + 1;
+			LookupCache.rollback(c);
+			uncommittedItems.clear();
+		} finally {
+			group.clear();
+		}
+	}
+
+	/**
+	 * Commits the items updated since the last commit, and clears the
+	 * Context's cache so memory use doesn't grow with the number of items.
+	 */
+	private void commit() throws SQLException {
+		if (uncommittedItems.isEmpty()) {
+			return;
+		}
+		if (!isDryRun) {
+			LookupCache.commit(c);
+		}
+		LookupCache.clearCache(c);
+		uncommittedItems.clear();
+
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		print("%d items, %d rows: %.1f items/s", nItems, nRows, nItems * 1000.0 / elapsed);
+	}
+
+	private Item findItem(String itemKey) throws SQLException {
+		if (itemKey.indexOf('/') >= 0) {
+			DSpaceObject o = HandleManager.resolveToObject(c, itemKey);
+			return o instanceof Item ? (Item) o : null;
+		}
+		try {
+			return Item.find(c, Integer.parseInt(itemKey));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private Set<String> getRegisteredFields() throws SQLException {
+		if (registeredFields == null) {
+			registeredFields = new HashSet<String>(SqlUtil.getFieldNames(c).values());
+		}
+		return registeredFields;
+	}
+
+	private void rowError(int lineNo, String message) {
+		nRowErrors++;
+		print("Line %d: %s", lineNo, message);
+	}
+
+	private static boolean isHeader(String firstColumn) {
+		String column = firstColumn.trim().toLowerCase();
+		return column.equals("handle") || column.equals("id") || column.equals("item");
+	}
+
+	/**
+	 * Splits a line into columns. Columns may be enclosed in double quotes,
+	 * with embedded double quotes doubled.
+	 */
+	private static List<String> split(String line, char delimiter) {
+		List<String> columns = new ArrayList<String>();
+		StringBuilder column = new StringBuilder();
+		boolean isQuoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char ch = line.charAt(i);
+			if (isQuoted) {
+				if (ch == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					column.append('"');
+					i++;
+				} else if (ch == '"') {
+					isQuoted = false;
+				} else {
+					column.append(ch);
+				}
+			} else if (ch == '"' && column.length() == 0) {
+				isQuoted = true;
+			} else if (ch == delimiter) {
+				columns.add(column.toString());
+				column.setLength(0);
+			} else {
+				column.append(ch);
+			}
+		}
+		columns.add(column.toString());
+		return columns;
+	}
+
+	private static void print(String str, Object... varargs) {
+		System.out.format(str, varargs);
+		System.out.println();
+	}
+
+	private static class Row {
+		private int lineNo;
+		private String itemKey;
+		private ItemMetadataValue.Field field;
+		private String value;
+		private boolean isReplace = false;
+	}
+}
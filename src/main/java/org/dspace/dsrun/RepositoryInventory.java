@@ -0,0 +1,555 @@
+/**
+ * 
+ */
+package org.dspace.dsrun;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.PosixParser;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.eperson.Group;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+import org.dspace.traverse.JsonUtil;
+
+/**
+ * Reports, for each community and collection, the number of items and
+ * bitstreams, their total size, the size and count by MIME type, the number
+ * of bitstreams in each bundle name and the number of bitstreams anonymous
+ * users can read.
+ * <p>
+ * Everything is computed with aggregate queries, grouped by scope, over a
+ * derived table of (scope, collection) pairs. A collection's only pair is
+ * itself, and a community has a pair for each collection beneath it, so that
+ * items mapped into several of its collections are only counted once. Each
+ * query covers up to 1000 pairs, so a community and its ancestors are
+ * aggregated together in one pass instead of each re-reading the subtree.
+ * The subtree beneath each community or collection specified, or each
+ * top-level community if none are, is aggregated on its own thread with its
+ * own Context.
+ *
+ * @author Rahul Khanna
+ *
+ */
+public class RepositoryInventory {
+
+	private static final String ANONYMOUS_GROUPNAME = "Anonymous";
+
+	// maximum number of (scope, collection) pairs aggregated by one query, unless one community has more
+	private static final int MAX_PAIRS = 1000;
+
+	/**
+	 * The items in each scope, where %1$s is the derived table of (scope_id,
+	 * collection_id) pairs.
+	 */
+	private static final String SCOPE_ITEMS = " FROM collection2item"
+			+ " JOIN %1$s scopes ON scopes.collection_id = collection2item.collection_id";
+
+	/**
+	 * The distinct bitstreams in each scope.
+	 */
+	private static final String SCOPE_BITSTREAMS = "SELECT DISTINCT scopes.scope_id, bitstream.bitstream_id,"
+			+ " bitstream.size_bytes, bitstream.bitstream_format_id" + SCOPE_ITEMS
+			+ " JOIN item2bundle ON item2bundle.item_id = collection2item.item_id"
+			+ " JOIN bundle2bitstream ON bundle2bitstream.bundle_id = item2bundle.bundle_id"
+			+ " JOIN bitstream ON bitstream.bitstream_id = bundle2bitstream.bitstream_id"
+			+ " WHERE bitstream.deleted = '0'";
+
+	private static final String ITEM_TOTALS = "SELECT scope_id, COUNT(*) AS n FROM"
+			+ " (SELECT DISTINCT scopes.scope_id, collection2item.item_id" + SCOPE_ITEMS + ") t GROUP BY scope_id";
+
+	private static final String BITSTREAM_TOTALS = "SELECT scope_id, COUNT(*) AS n, SUM(size_bytes) AS bytes FROM ("
+			+ SCOPE_BITSTREAMS + ") t GROUP BY scope_id";
+
+	private static final String FORMAT_TOTALS = "SELECT t.scope_id, bitstreamformatregistry.mimetype AS name,"
+			+ " COUNT(*) AS n, SUM(t.size_bytes) AS bytes FROM (" + SCOPE_BITSTREAMS + ") t"
+			+ " LEFT JOIN bitstreamformatregistry"
+			+ " ON bitstreamformatregistry.bitstream_format_id = t.bitstream_format_id"
+			+ " GROUP BY t.scope_id, bitstreamformatregistry.mimetype";
+
+	private static final String ANONYMOUS_TOTALS = "SELECT scope_id, COUNT(*) AS n FROM (" + SCOPE_BITSTREAMS + ") t"
+			+ " WHERE EXISTS (SELECT 1 FROM resourcepolicy WHERE resourcepolicy.resource_type_id = "
+			+ Constants.BITSTREAM + " AND resourcepolicy.resource_id = t.bitstream_id"
+			+ " AND resourcepolicy.action_id = " + Constants.READ + " AND resourcepolicy.epersongroup_id = ?"
+			+ " AND (resourcepolicy.start_date IS NULL OR resourcepolicy.start_date <= CURRENT_TIMESTAMP)"
+			+ " AND (resourcepolicy.end_date IS NULL OR resourcepolicy.end_date > CURRENT_TIMESTAMP))"
+			+ " GROUP BY scope_id";
+
+	private static final String BUNDLE_TOTALS = "SELECT t.scope_id, metadatavalue.text_value AS name,"
+			+ " COUNT(DISTINCT t.bitstream_id) AS n FROM"
+			+ " (SELECT DISTINCT scopes.scope_id, bundle2bitstream.bundle_id, bundle2bitstream.bitstream_id"
+			+ SCOPE_ITEMS + " JOIN item2bundle ON item2bundle.item_id = collection2item.item_id"
+			+ " JOIN bundle2bitstream ON bundle2bitstream.bundle_id = item2bundle.bundle_id"
+			+ " JOIN bitstream ON bitstream.bitstream_id = bundle2bitstream.bitstream_id"
+			+ " WHERE bitstream.deleted = '0') t"
+			+ " LEFT JOIN metadatavalue ON metadatavalue.resource_type_id = " + Constants.BUNDLE
+			+ " AND metadatavalue.resource_id = t.bundle_id AND metadatavalue.metadata_field_id = ?"
+			+ " AND metadatavalue.place = 1"
+			+ " GROUP BY t.scope_id, metadatavalue.text_value";
+
+	private static Context context;
+	private static int nThreads = 4;
+
+	private static final Map<Integer, Node> communities = new HashMap<Integer, Node>();
+	private static final Map<Integer, Node> collections = new HashMap<Integer, Node>();
+	// communities and collections already being aggregated by a thread
+	private static final Set<Node> claimed = Collections.synchronizedSet(new HashSet<Node>());
+	private static int titleFieldId;
+	private static int anonymousGroupId;
+
+	public static void main(String[] args) throws Exception {
+		Options cliOptions = new Options();
+		cliOptions.addOption("f", "format", true, "output format, csv or json (default csv)");
+		cliOptions.addOption("o", "output", true, "write the report to the specified file instead of standard output");
+		cliOptions.addOption("t", "threads", true, "number of subtrees aggregated at the same time (default 4)");
+		cliOptions.addOption("h", "help", false, "display this help");
+
+		CommandLineParser cliParser = new PosixParser();
+		CommandLine cmdLine = cliParser.parse(cliOptions, args);
+		if (cmdLine.hasOption("help")) {
+			printHelp(cliOptions);
+			return;
+		}
+
+		String format = cmdLine.getOptionValue("format", "csv");
+		if (!format.equals("csv") && !format.equals("json")) {
+			print("Format must be csv or json.");
+			return;
+		}
+		if (cmdLine.hasOption("threads")) {
+			try {
+				nThreads = Integer.parseInt(cmdLine.getOptionValue("threads"));
+			} catch (NumberFormatException e) {
+				print("Invalid number: %s", e.getMessage());
+				printHelp(cliOptions);
+				return;
+			}
+			if (nThreads < 1) {
+				print("Number of threads must be at least 1.");
+				return;
+			}
+		}
+
+		try {
+			context = new Context(Context.READ_ONLY);
+			context.turnOffAuthorisationSystem();
+
+			long start = System.currentTimeMillis();
+			loadStructure();
+			List<Node> roots = getRoots(cmdLine.getArgs());
+			aggregate(roots);
+
+			String outputFile = cmdLine.getOptionValue("output");
+			Writer writer = outputFile != null ? Files.newBufferedWriter(Paths.get(outputFile), StandardCharsets.UTF_8)
+					: new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+			try {
+				if (format.equals("csv")) {
+					writer.write("type,handle,name,parent,items,bitstreams,bytes,anonymous_read_bitstreams,formats,bundles\n");
+				}
+				Set<Node> written = new LinkedHashSet<Node>();
+				for (Node root : roots) {
+					write(writer, root, null, format, written);
+				}
+			} finally {
+				if (outputFile != null) {
+					writer.close();
+				} else {
+					writer.flush();
+				}
+			}
+			System.err.format("Aggregated %d subtrees in %d ms.%n", roots.size(), System.currentTimeMillis() - start);
+		} finally {
+			if (context != null) {
+				context.abort();
+			}
+		}
+	}
+
+	/**
+	 * Loads every community and collection, with their names, handles and
+	 * parent-child relationships.
+	 */
+	private static void loadStructure() throws SQLException {
+		TableRow row = DatabaseManager.querySingle(context,
+				"SELECT metadatafieldregistry.metadata_field_id FROM metadatafieldregistry, metadataschemaregistry"
+						+ " WHERE metadatafieldregistry.metadata_schema_id = metadataschemaregistry.metadata_schema_id"
+						+ " AND metadataschemaregistry.short_id = 'dc' AND metadatafieldregistry.element = 'title'"
+						+ " AND metadatafieldregistry.qualifier IS NULL");
+		if (row == null) {
+			throw new SQLException("Metadata field dc.title not found");
+		}
+		titleFieldId = row.getIntColumn("metadata_field_id");
+		Group anonymous = LookupCache.forContext(context).findGroupByName(ANONYMOUS_GROUPNAME);
+		anonymousGroupId = anonymous != null ? anonymous.getID() : -1;
+
+		for (TableRow r : query("SELECT community_id FROM community")) {
+			int id = r.getIntColumn("community_id");
+			communities.put(id, new Node(Constants.COMMUNITY, id));
+		}
+		for (TableRow r : query("SELECT collection_id FROM collection")) {
+			int id = r.getIntColumn("collection_id");
+			collections.put(id, new Node(Constants.COLLECTION, id));
+		}
+		for (TableRow r : query("SELECT resource_type_id, resource_id, handle FROM handle"
+				+ " WHERE resource_type_id IN (?, ?) AND resource_id IS NOT NULL", Constants.COMMUNITY,
+				Constants.COLLECTION)) {
+			Node node = find(r.getIntColumn("resource_type_id"), r.getIntColumn("resource_id"));
+			if (node != null) {
+				node.handle = r.getStringColumn("handle");
+			}
+		}
+		for (TableRow r : query("SELECT resource_type_id, resource_id, text_value FROM metadatavalue"
+				+ " WHERE resource_type_id IN (?, ?) AND metadata_field_id = ? ORDER BY place DESC",
+				Constants.COMMUNITY, Constants.COLLECTION, titleFieldId)) {
+			// the first title is read last
+			Node node = find(r.getIntColumn("resource_type_id"), r.getIntColumn("resource_id"));
+			if (node != null) {
+				node.name = r.getStringColumn("text_value");
+			}
+		}
+		for (TableRow r : query("SELECT parent_comm_id, child_comm_id FROM community2community")) {
+			Node parent = communities.get(r.getIntColumn("parent_comm_id"));
+			Node child = communities.get(r.getIntColumn("child_comm_id"));
+			if (parent != null && child != null) {
+				parent.children.add(child);
+				child.hasParent = true;
+			}
+		}
+		for (TableRow r : query("SELECT community_id, collection_id FROM community2collection")) {
+			Node parent = communities.get(r.getIntColumn("community_id"));
+			Node child = collections.get(r.getIntColumn("collection_id"));
+			if (parent != null && child != null) {
+				parent.children.add(child);
+				child.hasParent = true;
+			}
+		}
+	}
+
+	/**
+	 * Returns the communities and collections with the specified handles, or
+	 * all top-level communities if none are specified.
+	 */
+	private static List<Node> getRoots(String[] handles) {
+		List<Node> roots = new ArrayList<Node>();
+		if (handles == null || handles.length == 0) {
+			for (Node community : new TreeMap<Integer, Node>(communities).values()) {
+				if (!community.hasParent) {
+					roots.add(community);
+				}
+			}
+			return roots;
+		}
+
+		Map<String, Node> byHandle = new HashMap<String, Node>();
+		for (Node node : communities.values()) {
+			byHandle.put(node.handle, node);
+		}
+		for (Node node : collections.values()) {
+			byHandle.put(node.handle, node);
+		}
+		for (String handle : handles) {
+			Node node = byHandle.get(handle);
+			if (node != null) {
+				roots.add(node);
+			} else {
+				System.err.format("%s isn't the handle of a community or collection%n", handle);
+			}
+		}
+		return roots;
+	}
+
+	/**
+	 * Aggregates each subtree on a separate thread.
+	 */
+	private static void aggregate(List<Node> roots) throws SQLException, InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (final Node root : roots) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws SQLException {
+						Context c = new Context(Context.READ_ONLY);
+						try {
+							aggregateSubtree(c, root);
+						} finally {
+							c.abort();
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof SQLException) {
+						throw (SQLException) e.getCause();
+					}
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void aggregateSubtree(Context c, Node root) throws SQLException {
+		List<Node> subtreeCommunities = new ArrayList<Node>();
+		Set<Node> subtreeCollections = new LinkedHashSet<Node>();
+		collectSubtree(root, subtreeCommunities, subtreeCollections, new LinkedHashSet<Node>());
+
+		// the collections, each its own scope
+		List<Integer> pairs = new ArrayList<Integer>();
+		for (Node collection : subtreeCollections) {
+			if (!claimed.add(collection)) {
+				continue;
+			}
+			if (pairs.size() / 2 == MAX_PAIRS) {
+				aggregateScopes(c, pairs, collections);
+				pairs.clear();
+			}
+			pairs.add(collection.id);
+			pairs.add(collection.id);
+		}
+		aggregateScopes(c, pairs, collections);
+		pairs.clear();
+
+		// the communities over the collections beneath them, each in a single query
+		for (Node community : subtreeCommunities) {
+			if (!claimed.add(community)) {
+				continue;
+			}
+			Set<Node> beneath = new LinkedHashSet<Node>();
+			collectSubtree(community, new ArrayList<Node>(), beneath, new LinkedHashSet<Node>());
+			if (!pairs.isEmpty() && pairs.size() / 2 + beneath.size() > MAX_PAIRS) {
+				aggregateScopes(c, pairs, communities);
+				pairs.clear();
+			}
+			for (Node collection : beneath) {
+				pairs.add(community.id);
+				pairs.add(collection.id);
+			}
+		}
+		aggregateScopes(c, pairs, communities);
+	}
+
+	private static void collectSubtree(Node node, List<Node> communityNodes, Set<Node> collectionNodes,
+			Set<Node> visited) {
+		if (!visited.add(node)) {
+			return;
+		}
+		if (node.type == Constants.COLLECTION) {
+			collectionNodes.add(node);
+			return;
+		}
+		communityNodes.add(node);
+		for (Node child : node.children) {
+			collectSubtree(child, communityNodes, collectionNodes, visited);
+		}
+	}
+
+	/**
+	 * Runs the aggregate queries over the (scope ID, collection ID) pairs,
+	 * grouped by scope, and stores the totals in the nodes the scope IDs refer
+	 * to.
+	 */
+	private static void aggregateScopes(Context c, List<Integer> pairs, Map<Integer, Node> scopes)
+			throws SQLException {
+		if (pairs.isEmpty()) {
+			return;
+		}
+		String scopeTable = scopeTable(pairs.size() / 2);
+		List<Object> params = new ArrayList<Object>(pairs);
+
+		for (TableRow row : query(c, String.format(ITEM_TOTALS, scopeTable), params)) {
+			scopes.get(row.getIntColumn("scope_id")).nItems = row.getLongColumn("n");
+		}
+		for (TableRow row : query(c, String.format(BITSTREAM_TOTALS, scopeTable), params)) {
+			Node scope = scopes.get(row.getIntColumn("scope_id"));
+			scope.nBitstreams = row.getLongColumn("n");
+			scope.nBytes = row.isColumnNull("bytes") ? 0L : row.getLongColumn("bytes");
+		}
+		for (TableRow row : query(c, String.format(FORMAT_TOTALS, scopeTable), params)) {
+			String mimeType = row.isColumnNull("name") ? "unknown" : row.getStringColumn("name");
+			scopes.get(row.getIntColumn("scope_id")).formats.put(mimeType, new long[] { row.getLongColumn("n"),
+					row.isColumnNull("bytes") ? 0L : row.getLongColumn("bytes") });
+		}
+		if (anonymousGroupId != -1) {
+			List<Object> anonymousParams = new ArrayList<Object>(params);
+			anonymousParams.add(anonymousGroupId);
+			for (TableRow row : query(c, String.format(ANONYMOUS_TOTALS, scopeTable), anonymousParams)) {
+				scopes.get(row.getIntColumn("scope_id")).nAnonymousRead = row.getLongColumn("n");
+			}
+		}
+		List<Object> bundleParams = new ArrayList<Object>(params);
+		bundleParams.add(titleFieldId);
+		for (TableRow row : query(c, String.format(BUNDLE_TOTALS, scopeTable), bundleParams)) {
+			String bundleName = row.isColumnNull("name") ? "(unnamed)" : row.getStringColumn("name");
+			scopes.get(row.getIntColumn("scope_id")).bundles.put(bundleName, row.getLongColumn("n"));
+		}
+	}
+
+	/**
+	 * Returns a derived table of n (scope_id, collection_id) rows of bind
+	 * placeholders.
+	 */
+	private static String scopeTable(int n) {
+		String row = DatabaseManager.isOracle() ? "SELECT ? AS scope_id, ? AS collection_id FROM dual"
+				: "SELECT ? AS scope_id, ? AS collection_id";
+		StringBuilder sb = new StringBuilder("(");
+		for (int i = 0; i < n; i++) {
+			if (i > 0) {
+				sb.append(" UNION ALL ");
+			}
+			sb.append(row);
+		}
+		sb.append(')');
+		return sb.toString();
+	}
+
+	/**
+	 * Writes a node and the nodes beneath it, depth first. Nodes beneath more
+	 * than one of the roots are only written once.
+	 */
+	private static void write(Writer writer, Node node, Node parent, String format, Set<Node> written)
+			throws IOException {
+		if (!written.add(node)) {
+			return;
+		}
+		String type = node.type == Constants.COMMUNITY ? "community" : "collection";
+		String parentHandle = parent != null ? parent.handle : null;
+		if (format.equals("csv")) {
+			StringBuilder formats = new StringBuilder();
+			for (Map.Entry<String, long[]> entry : node.formats.entrySet()) {
+				formats.append(formats.length() > 0 ? ";" : "").append(entry.getKey()).append('=')
+						.append(entry.getValue()[0]).append('/').append(entry.getValue()[1]);
+			}
+			StringBuilder bundles = new StringBuilder();
+			for (Map.Entry<String, Long> entry : node.bundles.entrySet()) {
+				bundles.append(bundles.length() > 0 ? ";" : "").append(entry.getKey()).append('=')
+						.append(entry.getValue());
+			}
+			writer.write(String.format("%s,%s,%s,%s,%d,%d,%d,%d,%s,%s\n", type, csv(node.handle), csv(node.name),
+					csv(parentHandle), node.nItems, node.nBitstreams, node.nBytes, node.nAnonymousRead,
+					csv(formats.toString()), csv(bundles.toString())));
+		} else {
+			StringBuilder formats = new StringBuilder();
+			for (Map.Entry<String, long[]> entry : node.formats.entrySet()) {
+				formats.append(formats.length() > 0 ? "," : "").append(JsonUtil.quote(entry.getKey()))
+						.append(String.format(":{\"bitstreams\":%d,\"bytes\":%d}", entry.getValue()[0],
+								entry.getValue()[1]));
+			}
+			StringBuilder bundles = new StringBuilder();
+			for (Map.Entry<String, Long> entry : node.bundles.entrySet()) {
+				bundles.append(bundles.length() > 0 ? "," : "").append(JsonUtil.quote(entry.getKey())).append(':')
+						.append(entry.getValue());
+			}
+			writer.write(String.format("{\"type\":\"%s\",\"id\":%d,\"handle\":%s,\"name\":%s,\"parent\":%s,"
+					+ "\"items\":%d,\"bitstreams\":%d,\"bytes\":%d,\"anonymousReadBitstreams\":%d,"
+					+ "\"formats\":{%s},\"bundles\":{%s}}\n", type, node.id, quote(node.handle), quote(node.name),
+					quote(parentHandle), node.nItems, node.nBitstreams, node.nBytes, node.nAnonymousRead, formats,
+					bundles));
+		}
+		for (Node child : node.children) {
+			write(writer, child, node, format, written);
+		}
+	}
+
+	private static Node find(int type, int id) {
+		return type == Constants.COMMUNITY ? communities.get(id) : collections.get(id);
+	}
+
+	private static List<TableRow> query(String query, Object... params) throws SQLException {
+		return query(context, query, Arrays.asList(params));
+	}
+
+	private static List<TableRow> query(Context c, String query, List<Object> params) throws SQLException {
+		List<TableRow> rows = new ArrayList<TableRow>();
+		TableRowIterator iterator = DatabaseManager.query(c, query, params.toArray());
+		try {
+			while (iterator.hasNext()) {
+				rows.add(iterator.next());
+			}
+		} finally {
+			iterator.close();
+		}
+		return rows;
+	}
+
+	private static String csv(String str) {
+		if (str == null) {
+			return "";
+		}
+		if (str.indexOf(',') >= 0 || str.indexOf('"') >= 0 || str.indexOf('\n') >= 0) {
+			return "\"" + str.replace("\"", "\"\"") + "\"";
+		}
+		return str;
+	}
+
+	private static String quote(String str) {
+		return str != null ? JsonUtil.quote(str) : "null";
+	}
+
+	private static void printHelp(Options cliOptions) {
+		HelpFormatter formatter = new HelpFormatter();
+		formatter.printHelp(RepositoryInventory.class.getName() + " [HANDLE]...", cliOptions);
+	}
+
+	private static void print(String str, Object... varargs) {
+		System.out.format(str, varargs);
+		System.out.println();
+	}
+
+	/**
+	 * A community or collection, and its totals.
+	 */
+	private static class Node {
+		private final int type;
+		private final int id;
+		private String handle;
+		private String name;
+		private boolean hasParent = false;
+		private final List<Node> children = new ArrayList<Node>();
+
+		private long nItems = 0;
+		private long nBitstreams = 0;
+		private long nBytes = 0;
+		private long nAnonymousRead = 0;
+		private final Map<String, long[]> formats = new TreeMap<String, long[]>();
+		private final Map<String, Long> bundles = new TreeMap<String, Long>();
+
+		public Node(int type, int id) {
+			this.type = type;
+			this.id = id;
+		}
+	}
+}
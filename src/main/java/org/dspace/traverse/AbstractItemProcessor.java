@@ -3,9 +3,13 @@
  */
 package org.dspace.traverse;
 
+import java.sql.SQLException;
+
 import org.dspace.content.Collection;
 import org.dspace.content.Community;
+import org.dspace.content.DSpaceObject;
 import org.dspace.content.Item;
+import org.dspace.core.Constants;
 import org.dspace.core.Context;
 
 /**
@@ -16,6 +20,7 @@ public abstract class AbstractItemProcessor implements ItemProcessor {
 
 	protected Context c;
 	protected boolean isDryRun;
+	protected ChangePlan changePlan;
 
 	@Override
 	public void setContext(Context c) {
@@ -27,9 +32,65 @@ public abstract class AbstractItemProcessor implements ItemProcessor {
 		this.isDryRun = isDryRun;
 	}
 
+	@Override
+	public void setChangePlan(ChangePlan changePlan) {
+		this.changePlan = changePlan;
+	}
+
 	protected static void print(String str, Object... varargs) {
-		System.out.format(str, varargs);
-		System.out.println();
+		TraversalOutput.print(str, varargs);
+	}
+
+	/**
+	 * Prints a line describing a change to a resource. In summary-only mode the
+	 * change is counted against the resource's collection instead.
+	 * 
+	 * @param action
+	 *            kind of change, e.g. ADD, UPDATE or DELETE
+	 */
+	protected static void printChange(DSpaceObject resource, String action, String str, Object... varargs)
+			throws SQLException {
+		if (TraversalOutput.isSummaryOnly()) {
+			TraversalOutput.change(getCollectionHandle(resource), action, str, varargs);
+		} else {
+			TraversalOutput.print(str, varargs);
+		}
+	}
+
+	/**
+	 * Records a policy change in the change plan, if one is being written.
+	 * 
+	 * @param policyId
+	 *            ID of the policy changed, or -1 for a new policy
+	 * @param groupId
+	 *            ID of the group the policy is granted to, or -1 when deleted
+	 * @param oldGroupId
+	 *            ID of the group the policy was granted to before the change,
+	 *            or -1
+	 * @param oldEPersonId
+	 *            ID of the e-person the policy was granted to before the
+	 *            change, or -1
+	 */
+	protected void recordChange(String op, int policyId, DSpaceObject resource, int action, int groupId,
+			int oldGroupId, int oldEPersonId, String resourcePath) {
+		if (changePlan != null) {
+			changePlan.record(new PlanEntry(op, policyId, resource.getType(), resource.getID(), action, groupId,
+					oldGroupId, oldEPersonId, resourcePath));
+		}
+	}
+
+	private static String getCollectionHandle(DSpaceObject resource) throws SQLException {
+		DSpaceObject o = resource;
+		while (o != null && o.getType() != Constants.COLLECTION) {
+			if (o.getType() == Constants.ITEM) {
+				o = ((Item) o).getOwningCollection();
+			} else if (o.getType() == Constants.BUNDLE || o.getType() == Constants.BITSTREAM) {
+				o = o.getParentObject();
+			} else {
+				o = null;
+			}
+		}
+		return o != null ? o.getHandle() : "(no collection)";
 	}
 
 	@Override
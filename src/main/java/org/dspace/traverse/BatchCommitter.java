@@ -0,0 +1,97 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.dspace.core.Context;
+import org.dspace.dsrun.LookupCache;
+
+/**
+ * Commits a Context after a number of items have been processed so that a long
+ * traversal doesn't run in one transaction. In adaptive mode the batch size is
+ * doubled when commits are quick and halved when they are slow, keeping each
+ * transaction short without committing after every item.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class BatchCommitter {
+
+	// commits faster than this grow the batch, slower ones shrink it
+	private static final long GROW_BELOW_MILLIS = 200L;
+	private static final long SHRINK_ABOVE_MILLIS = 2000L;
+	private static final int MAX_BATCH_SIZE = 10000;
+
+	private final Context c;
+	private final boolean isAdaptive;
+	private final boolean isTimed;
+	private final TraversalStats stats;
+
+	private int batchSize;
+	private int nPending = 0;
+
+	public BatchCommitter(Context c, int batchSize, boolean isAdaptive, boolean isTimed, TraversalStats stats) {
+		this.c = c;
+		this.batchSize = batchSize;
+		this.isAdaptive = isAdaptive;
+		this.isTimed = isTimed;
+		this.stats = stats;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Records that an item has been processed.
+	 * 
+	 * @return true if the batch is full and should now be committed
+	 */
+	public boolean itemProcessed() {
+		nPending++;
+		return nPending >= batchSize;
+	}
+
+	/**
+	 * Commits the items processed since the last commit, if any.
+	 */
+	public void commit() throws SQLException {
+		if (nPending == 0) {
+			return;
+		}
+
+		long start = System.nanoTime();
+		LookupCache.commit(c);
+		long elapsedNanos = System.nanoTime() - start;
+		stats.recordCommit(elapsedNanos);
+
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+		if (isTimed) {
+			TraversalOutput.print("[%s] Committed %d items in %d ms", Thread.currentThread().getName(), nPending, elapsedMillis);
+		}
+		nPending = 0;
+
+		if (isAdaptive) {
+			adjustBatchSize(elapsedMillis);
+		}
+	}
+
+	private void adjustBatchSize(long elapsedMillis) {
+		int newBatchSize = batchSize;
+		if (elapsedMillis < GROW_BELOW_MILLIS) {
+			newBatchSize = Math.min(MAX_BATCH_SIZE, batchSize * 2);
+		} else if (elapsedMillis > SHRINK_ABOVE_MILLIS) {
+			newBatchSize = Math.max(1, batchSize / 2);
+		}
+
+		if (newBatchSize != batchSize) {
+			if (isTimed) {
+				TraversalOutput.print("[%s] Batch size %d -> %d", Thread.currentThread().getName(), batchSize, newBatchSize);
+			}
+			batchSize = newBatchSize;
+		}
+	}
+}
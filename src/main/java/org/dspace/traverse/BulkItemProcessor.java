@@ -0,0 +1,28 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.util.Set;
+
+/**
+ * An item processor that can also process many items at once, directly in the
+ * database, without loading them. ResourceTraverser uses processItemIds
+ * instead of processItem when run with --bulk, and commits once per
+ * collection, or after every --bulk-batch items.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public interface BulkItemProcessor extends ItemProcessor {
+
+	/**
+	 * Processes the items with the specified IDs. The changes are committed by
+	 * the caller.
+	 * 
+	 * @return the IDs of any items left unchanged because they can't be
+	 *         processed in bulk. They aren't counted as successes or recorded
+	 *         in the journal.
+	 */
+	public Set<Integer> processItemIds(int[] itemIds) throws ItemProcessingException;
+}
@@ -0,0 +1,50 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Records the policy changes computed during a dry run in a plan file, one
+ * JSON object per line, so that they can be reviewed and later applied with
+ * PlanApplier without traversing the items again. Entries can be recorded
+ * from several worker threads at once.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class ChangePlan {
+
+	private final BufferedWriter writer;
+	private int nEntries = 0;
+
+	public ChangePlan(Path path) throws IOException {
+		writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+	}
+
+	public synchronized void record(PlanEntry entry) {
+		try {
+			writer.write(entry.toJson());
+			writer.newLine();
+			nEntries++;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Closes the plan file.
+	 * 
+	 * @return number of entries recorded
+	 */
+	public synchronized int close() throws IOException {
+		writer.close();
+		return nEntries;
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Records the IDs of processed items in a memory-mapped bitmap file, one bit
+ * per item_id, so that an interrupted traversal can be resumed without
+ * processing the same items again. Items should only be marked once the
+ * transaction containing their changes has been committed.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class CheckpointJournal {
+
+	private static final byte[] MAGIC = "DSRUNCP1".getBytes(StandardCharsets.US_ASCII);
+	private static final int HEADER_SIZE = MAGIC.length;
+	private static final int MIN_BITMAP_SIZE = 64 * 1024;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private MappedByteBuffer bitmap;
+	private int bitmapSize;
+
+	public CheckpointJournal(File file) throws IOException {
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = raf.getChannel();
+
+		if (raf.length() == 0) {
+			raf.write(MAGIC);
+		} else {
+			byte[] header = new byte[HEADER_SIZE];
+			raf.readFully(header);
+			if (!Arrays.equals(header, MAGIC)) {
+				close();
+				throw new IOException(String.format("%s is not a checkpoint journal", file.getPath()));
+			}
+		}
+		map(Math.max(MIN_BITMAP_SIZE, (int) (raf.length() - HEADER_SIZE)));
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public synchronized boolean isProcessed(int itemId) {
+		int index = itemId >>> 3;
+		if (index >= bitmapSize) {
+			return false;
+		}
+		return (bitmap.get(index) & (1 << (itemId & 7))) != 0;
+	}
+
+	/**
+	 * Marks the specified items as processed and flushes the changes to disk.
+	 */
+	public synchronized void markProcessed(int[] itemIds, int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			int itemId = itemIds[i];
+			int index = itemId >>> 3;
+			if (index >= bitmapSize) {
+				map(Math.max(index + 1, bitmapSize * 2));
+			}
+			bitmap.put(index, (byte) (bitmap.get(index) | (1 << (itemId & 7))));
+		}
+		bitmap.force();
+	}
+
+	public synchronized int countProcessed() {
+		int count = 0;
+		for (int i = 0; i < bitmapSize; i++) {
+			count += Integer.bitCount(bitmap.get(i) & 0xFF);
+		}
+		return count;
+	}
+
+	public synchronized void close() throws IOException {
+		if (bitmap != null) {
+			bitmap.force();
+		}
+		channel.close();
+		raf.close();
+	}
+
+	private void map(int size) throws IOException {
+		bitmap = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, size);
+		bitmapSize = size;
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.Item;
+import org.dspace.core.Context;
+
+/**
+ * Calls several item processors, in order, on each community, collection and
+ * item so that they can all be applied in a single traversal. If a processor
+ * fails, the remaining processors are still called and the first failure is
+ * rethrown afterwards.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class CompositeItemProcessor implements ItemProcessor {
+
+	private final List<ItemProcessor> processors;
+
+	public CompositeItemProcessor(List<ItemProcessor> processors) {
+		this.processors = new ArrayList<ItemProcessor>(processors);
+	}
+
+	public List<ItemProcessor> getProcessors() {
+		return processors;
+	}
+
+	@Override
+	public void setContext(Context c) {
+		for (ItemProcessor processor : processors) {
+			processor.setContext(c);
+		}
+	}
+
+	@Override
+	public void setDryRun(boolean isDryRun) {
+		for (ItemProcessor processor : processors) {
+			processor.setDryRun(isDryRun);
+		}
+	}
+
+	@Override
+	public void setChangePlan(ChangePlan plan) {
+		for (ItemProcessor processor : processors) {
+			processor.setChangePlan(plan);
+		}
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		for (ItemProcessor processor : processors) {
+			if (!processor.isThreadSafe()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the largest batch size of the processors. Processors with a
+	 * smaller batch size are still passed the whole batch.
+	 */
+	@Override
+	public int getBatchSize() {
+		int batchSize = 1;
+		for (ItemProcessor processor : processors) {
+			batchSize = Math.max(batchSize, processor.getBatchSize());
+		}
+		return batchSize;
+	}
+
+	@Override
+	public void begin() throws ItemProcessingException {
+		callEach(processor -> processor.begin());
+	}
+
+	@Override
+	public void end() throws ItemProcessingException {
+		callEach(processor -> processor.end());
+	}
+
+	@Override
+	public void flush() throws ItemProcessingException {
+		callEach(processor -> processor.flush());
+	}
+
+	@Override
+	public void processItems(List<Item> items) throws ItemProcessingException {
+		callEach(processor -> processor.processItems(items));
+	}
+
+	@Override
+	public void processItem(Item item) throws ItemProcessingException {
+		callEach(processor -> processor.processItem(item));
+	}
+
+	@Override
+	public void processCollection(Collection collection) throws ItemProcessingException {
+		callEach(processor -> processor.processCollection(collection));
+	}
+
+	@Override
+	public void processCommunity(Community community) throws ItemProcessingException {
+		callEach(processor -> processor.processCommunity(community));
+	}
+
+	/**
+	 * Calls every processor, then rethrows the first exception thrown, if any.
+	 * If every processor that failed only failed some items of a batch, the
+	 * items that failed in any of them are rethrown with it.
+	 */
+	private void callEach(ProcessorCall call) throws ItemProcessingException {
+		ItemProcessingException firstException = null;
+		Set<Integer> failedItemIds = new HashSet<Integer>();
+		boolean isPartialFailure = true;
+		for (ItemProcessor processor : processors) {
+			try {
+				call.apply(processor);
+			} catch (ItemProcessingException e) {
+				if (firstException == null) {
+					firstException = e;
+				}
+				if (e.getFailedItemIds() != null) {
+					failedItemIds.addAll(e.getFailedItemIds());
+				} else {
+					isPartialFailure = false;
+				}
+			}
+		}
+		if (firstException != null) {
+			if (isPartialFailure) {
+				throw new ItemProcessingException(firstException, failedItemIds);
+			}
+			throw firstException;
+		}
+	}
+
+	private interface ProcessorCall {
+		void apply(ItemProcessor processor) throws ItemProcessingException;
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Stores the fingerprint of each item as of the last time it was processed
+ * successfully, in a memory-mapped file of 64-bit values indexed by item_id.
+ * A fingerprint of 0 means the item hasn't been recorded. The file is tied to
+ * the processors it was written for; if it is opened for different
+ * processors, all fingerprints are discarded.
+ * <p>
+ * A read-only store, e.g. for a dry run, never changes the file: it is opened
+ * and mapped read-only, and if it is missing or was written for different
+ * processors no items are treated as recorded.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class FingerprintStore {
+
+	private static final byte[] MAGIC = "DSRUNFP1".getBytes(StandardCharsets.US_ASCII);
+	private static final int HEADER_SIZE = MAGIC.length + 8;
+	private static final int MIN_ENTRIES = 64 * 1024;
+
+	private final File file;
+	private final boolean isReadOnly;
+	private RandomAccessFile raf = null;
+	private FileChannel channel = null;
+	private MappedByteBuffer entries = null;
+	private int nEntries = 0;
+
+	/**
+	 * @param signature
+	 *            identifies the processors the fingerprints are recorded for
+	 * @param isReadOnly
+	 *            true if fingerprints are only to be checked, e.g. in a dry run
+	 */
+	public FingerprintStore(File file, long signature, boolean isReadOnly) throws IOException {
+		this.file = file;
+		this.isReadOnly = isReadOnly;
+		if (isReadOnly && !file.exists()) {
+			return;
+		}
+		this.raf = new RandomAccessFile(file, isReadOnly ? "r" : "rw");
+		this.channel = raf.getChannel();
+
+		boolean isReset = raf.length() == 0;
+		if (!isReset) {
+			byte[] header = new byte[MAGIC.length];
+			raf.readFully(header);
+			if (!Arrays.equals(header, MAGIC)) {
+				close();
+				throw new IOException(String.format("%s is not a fingerprint store", file.getPath()));
+			}
+			if (raf.readLong() != signature) {
+				TraversalOutput.print("%s was recorded for different item processors. All items will be processed.",
+						file.getPath());
+				isReset = true;
+			}
+		}
+		if (isReadOnly) {
+			if (!isReset) {
+				map((int) ((raf.length() - HEADER_SIZE) / 8));
+			}
+			return;
+		}
+		if (isReset) {
+			raf.setLength(0);
+			raf.write(MAGIC);
+			raf.writeLong(signature);
+		}
+		map(Math.max(MIN_ENTRIES, (int) ((raf.length() - HEADER_SIZE) / 8)));
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return fingerprint of the item when last processed, or 0 if not recorded
+	 */
+	public synchronized long get(int itemId) {
+		if (itemId >= nEntries) {
+			return 0L;
+		}
+		return entries.getLong(itemId * 8);
+	}
+
+	/**
+	 * Records the fingerprints of the specified items and flushes the changes to
+	 * disk. Does nothing if the store is read only.
+	 */
+	public synchronized void put(int[] itemIds, long[] fingerprints, int count) throws IOException {
+		if (isReadOnly) {
+			return;
+		}
+		for (int i = 0; i < count; i++) {
+			int itemId = itemIds[i];
+			if (itemId >= nEntries) {
+				map(Math.max(itemId + 1, nEntries * 2));
+			}
+			entries.putLong(itemId * 8, fingerprints[i]);
+		}
+		entries.force();
+	}
+
+	public synchronized int countRecorded() {
+		int count = 0;
+		for (int i = 0; i < nEntries; i++) {
+			if (entries.getLong(i * 8) != 0L) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public synchronized void close() throws IOException {
+		if (entries != null && !isReadOnly) {
+			entries.force();
+		}
+		if (raf != null) {
+			channel.close();
+			raf.close();
+		}
+	}
+
+	private void map(int size) throws IOException {
+		entries = channel.map(isReadOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE,
+				HEADER_SIZE, (long) size * 8);
+		nEntries = size;
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Resolves handles to resource types and IDs in batches, with one query
+ * against the handle table per batch instead of one query per handle. No
+ * DSpace objects are loaded.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class HandleResolver {
+
+	public static final int BATCH_SIZE = SqlUtil.MAX_IN_LIST;
+
+	private final Context c;
+
+	public HandleResolver(Context c) {
+		this.c = c;
+	}
+
+	/**
+	 * Resolves up to {@link #BATCH_SIZE} handles.
+	 * 
+	 * @return one ResolvedHandle per handle, in the order the handles were
+	 *         specified
+	 */
+	public List<ResolvedHandle> resolve(List<String> handles) throws SQLException {
+		if (handles.size() > BATCH_SIZE) {
+			throw new IllegalArgumentException(String.format("At most %d handles can be resolved at once", BATCH_SIZE));
+		}
+
+		Map<String, ResolvedHandle> resolved = new HashMap<String, ResolvedHandle>(handles.size() * 2);
+		if (!handles.isEmpty()) {
+			TableRowIterator rows = DatabaseManager.query(c,
+					"SELECT handle, resource_type_id, resource_id FROM handle WHERE resource_id IS NOT NULL AND handle IN "
+							+ SqlUtil.placeholders(handles.size()),
+					handles.toArray());
+			try {
+				while (rows.hasNext()) {
+					TableRow row = rows.next();
+					String handle = row.getStringColumn("handle");
+					resolved.put(handle, new ResolvedHandle(handle, row.getIntColumn("resource_type_id"),
+							row.getIntColumn("resource_id")));
+				}
+			} finally {
+				rows.close();
+			}
+		}
+
+		List<ResolvedHandle> results = new ArrayList<ResolvedHandle>(handles.size());
+		for (String handle : handles) {
+			ResolvedHandle result = resolved.get(handle);
+			results.add(result != null ? result : new ResolvedHandle(handle, -1, -1));
+		}
+		return results;
+	}
+
+	public static class ResolvedHandle {
+		private final String handle;
+		private final int resourceType;
+		private final int resourceId;
+
+		public ResolvedHandle(String handle, int resourceType, int resourceId) {
+			this.handle = handle;
+			this.resourceType = resourceType;
+			this.resourceId = resourceId;
+		}
+
+		public String getHandle() {
+			return handle;
+		}
+
+		public boolean isResolved() {
+			return resourceType >= 0;
+		}
+
+		public int getResourceType() {
+			return resourceType;
+		}
+
+		public int getResourceId() {
+			return resourceId;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.sql.SQLException;
+
+/**
+ * Accepts the IDs of items to be processed away from the thread traversing
+ * the communities and collections.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public interface ItemDispatcher {
+
+	public void start() throws SQLException, InstantiationException, IllegalAccessException,
+			ItemProcessingException;
+
+	public void submit(int itemId) throws ItemProcessingException;
+
+	/**
+	 * Waits for all submitted items to be processed, then commits and completes
+	 * the Contexts used to process them.
+	 */
+	public void shutdown();
+}
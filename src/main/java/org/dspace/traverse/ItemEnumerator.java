@@ -0,0 +1,219 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.dspace.content.DSpaceObject;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Resolves the communities, collections and archived items beneath a set of
+ * DSpace resources using set-based queries over community2community,
+ * community2collection and collection2item instead of loading each community,
+ * collection and item in turn. Only IDs are read; items are loaded later by
+ * whichever worker processes them.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class ItemEnumerator {
+
+	private final Context c;
+
+	private final Set<Integer> communityIds = new LinkedHashSet<Integer>();
+	private final Set<Integer> collectionIds = new LinkedHashSet<Integer>();
+	private final Set<Integer> itemIds = new LinkedHashSet<Integer>();
+
+	private ShardSpec shard = null;
+	private Date modifiedSince = null;
+
+	public ItemEnumerator(Context c) {
+		this.c = c;
+	}
+
+	/**
+	 * Adds a resource and, if it's a community or collection, everything beneath
+	 * it.
+	 */
+	public void add(DSpaceObject resource) throws SQLException {
+		add(resource.getType(), resource.getID());
+	}
+
+	/**
+	 * Adds a resource identified by its type and ID and, if it's a community or
+	 * collection, everything beneath it.
+	 */
+	public void add(int resourceType, int resourceId) throws SQLException {
+		if (resourceType == Constants.COMMUNITY) {
+			addCommunity(resourceId);
+		} else if (resourceType == Constants.COLLECTION) {
+			collectionIds.add(resourceId);
+		} else if (resourceType == Constants.ITEM) {
+			itemIds.add(resourceId);
+		}
+	}
+
+	/**
+	 * Adds a community and its subcommunities and collections, one query per
+	 * level of the community hierarchy.
+	 */
+	public void addCommunity(int communityId) throws SQLException {
+		List<Integer> level = new ArrayList<Integer>();
+		if (communityIds.add(communityId)) {
+			level.add(communityId);
+		}
+		while (!level.isEmpty()) {
+			List<Integer> nextLevel = new ArrayList<Integer>();
+			for (int childId : queryIds("SELECT child_comm_id AS id FROM community2community WHERE parent_comm_id IN ",
+					level)) {
+				if (communityIds.add(childId)) {
+					nextLevel.add(childId);
+				}
+			}
+			collectionIds.addAll(
+					queryIds("SELECT collection_id AS id FROM community2collection WHERE community_id IN ", level));
+			level = nextLevel;
+		}
+	}
+
+	/**
+	 * Restricts the items enumerated to those belonging to the specified shard.
+	 */
+	public void setShard(ShardSpec shard) {
+		this.shard = shard;
+	}
+
+	/**
+	 * Restricts the items enumerated to those with a last_modified time at or
+	 * after the specified time.
+	 */
+	public void setModifiedSince(Date modifiedSince) {
+		this.modifiedSince = modifiedSince;
+	}
+
+	public Set<Integer> getCommunityIds() {
+		return communityIds;
+	}
+
+	public Set<Integer> getCollectionIds() {
+		return collectionIds;
+	}
+
+	/**
+	 * Returns the IDs of the archived items in all collections added so far,
+	 * plus any items added directly, sorted in ascending order with duplicates
+	 * removed. If a shard or modification time has been set, only matching
+	 * items are returned.
+	 * 
+	 * @return sorted array of distinct item IDs
+	 */
+	public int[] enumerateItems() throws SQLException {
+		IntArrayBuilder ids = new IntArrayBuilder();
+		StringBuilder filter = new StringBuilder();
+		List<Object> filterParams = new ArrayList<Object>();
+		if (shard != null) {
+			filter.append(" AND MOD(item.item_id, ?) = ?");
+			filterParams.add(Integer.valueOf(shard.getShardCount()));
+			filterParams.add(Integer.valueOf(shard.getShard()));
+		}
+		if (modifiedSince != null) {
+			filter.append(" AND item.last_modified >= ?");
+			filterParams.add(new Timestamp(modifiedSince.getTime()));
+		}
+
+		// items added directly are processed whether archived or not
+		List<Integer> directItems = new ArrayList<Integer>(itemIds);
+		for (List<Integer> chunk : SqlUtil.chunks(directItems)) {
+			if (filter.length() == 0) {
+				for (Integer itemId : chunk) {
+					ids.add(itemId.intValue());
+				}
+			} else {
+				List<Object> params = new ArrayList<Object>(chunk);
+				params.addAll(filterParams);
+				addIds(ids, "SELECT item.item_id AS id FROM item WHERE item.item_id IN "
+						+ SqlUtil.placeholders(chunk.size()) + filter, params.toArray());
+			}
+		}
+
+		List<Integer> collections = new ArrayList<Integer>(collectionIds);
+		for (List<Integer> chunk : SqlUtil.chunks(collections)) {
+			List<Object> params = new ArrayList<Object>(chunk);
+			params.addAll(filterParams);
+			addIds(ids,
+					"SELECT DISTINCT collection2item.item_id AS id FROM collection2item, item"
+							+ " WHERE collection2item.item_id = item.item_id AND item.in_archive = '1'"
+							+ " AND collection2item.collection_id IN " + SqlUtil.placeholders(chunk.size()) + filter,
+					params.toArray());
+		}
+
+		return ids.toSortedDistinctArray();
+	}
+
+	private void addIds(IntArrayBuilder ids, String query, Object[] params) throws SQLException {
+		TableRowIterator rows = DatabaseManager.query(c, query, params);
+		try {
+			while (rows.hasNext()) {
+				ids.add(rows.next().getIntColumn("id"));
+			}
+		} finally {
+			rows.close();
+		}
+	}
+
+	private List<Integer> queryIds(String prefix, List<Integer> params) throws SQLException {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (List<Integer> chunk : SqlUtil.chunks(params)) {
+			TableRowIterator rows = DatabaseManager.query(c, prefix + SqlUtil.placeholders(chunk.size()),
+					chunk.toArray());
+			try {
+				while (rows.hasNext()) {
+					TableRow row = rows.next();
+					ids.add(row.getIntColumn("id"));
+				}
+			} finally {
+				rows.close();
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Growable array of primitive ints, avoiding an Integer object per item.
+	 */
+	private static class IntArrayBuilder {
+		private int[] values = new int[1024];
+		private int size = 0;
+
+		public void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		public int[] toSortedDistinctArray() {
+			Arrays.sort(values, 0, size);
+			int nDistinct = 0;
+			for (int i = 0; i < size; i++) {
+				if (nDistinct == 0 || values[i] != values[nDistinct - 1]) {
+					values[nDistinct++] = values[i];
+				}
+			}
+			return Arrays.copyOf(values, nDistinct);
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Computes a fingerprint of each item from its last_modified time and the
+ * resource policies of its bundles and bitstreams, using two queries per 1000
+ * items and without loading any DSpace objects. Adding or removing a bundle,
+ * bitstream or policy, or changing a policy's action, grantee, dates or type,
+ * changes the fingerprint. Fingerprints are never 0.
+ * <p>
+ * Each bundle and bitstream is read with each of its policies and the row is
+ * hashed in Java. The row hashes are added together, so the fingerprint
+ * doesn't depend on the order the rows are returned in.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class ItemFingerprinter {
+
+	private final Context c;
+
+	public ItemFingerprinter(Context c) {
+		this.c = c;
+	}
+
+	/**
+	 * @return fingerprints of the first count items, in the same order, with 0
+	 *         for items that don't exist
+	 */
+	public long[] fingerprint(int[] itemIds, int count) throws SQLException {
+		long[] fingerprints = new long[count];
+		for (int from = 0; from < count; from += SqlUtil.MAX_IN_LIST) {
+			int to = Math.min(count, from + SqlUtil.MAX_IN_LIST);
+			List<Object> ids = new ArrayList<Object>(to - from);
+			for (int i = from; i < to; i++) {
+				ids.add(itemIds[i]);
+			}
+
+			Map<Integer, Long> lastModified = new HashMap<Integer, Long>();
+			TableRowIterator rows = DatabaseManager.query(c, "SELECT item_id, last_modified FROM item WHERE item_id IN "
+					+ SqlUtil.placeholders(ids.size()), ids.toArray());
+			try {
+				while (rows.hasNext()) {
+					TableRow row = rows.next();
+					lastModified.put(row.getIntColumn("item_id"), row.isColumnNull("last_modified") ? 0L
+							: row.getDateColumn("last_modified").getTime());
+				}
+			} finally {
+				rows.close();
+			}
+
+			// sum and number of the row hashes of each item
+			Map<Integer, long[]> policyHashes = new HashMap<Integer, long[]>();
+			List<Object> params = new ArrayList<Object>(ids);
+			params.addAll(ids);
+			rows = DatabaseManager.query(c, "SELECT resources.item_id, resources.resource_type_id,"
+					+ " resources.resource_id, resourcepolicy.policy_id, resourcepolicy.action_id,"
+					+ " resourcepolicy.epersongroup_id, resourcepolicy.eperson_id, resourcepolicy.start_date,"
+					+ " resourcepolicy.end_date, resourcepolicy.rptype"
+					+ " FROM (SELECT item2bundle.item_id, " + Constants.BUNDLE + " AS resource_type_id,"
+					+ " item2bundle.bundle_id AS resource_id FROM item2bundle WHERE item2bundle.item_id IN "
+					+ SqlUtil.placeholders(ids.size())
+					+ " UNION ALL SELECT item2bundle.item_id, " + Constants.BITSTREAM + " AS resource_type_id,"
+					+ " bundle2bitstream.bitstream_id AS resource_id FROM item2bundle, bundle2bitstream"
+					+ " WHERE bundle2bitstream.bundle_id = item2bundle.bundle_id AND item2bundle.item_id IN "
+					+ SqlUtil.placeholders(ids.size()) + ") resources"
+					+ " LEFT JOIN resourcepolicy ON resourcepolicy.resource_type_id = resources.resource_type_id"
+					+ " AND resourcepolicy.resource_id = resources.resource_id", params.toArray());
+			try {
+				while (rows.hasNext()) {
+					TableRow row = rows.next();
+					long[] itemHashes = policyHashes.get(row.getIntColumn("item_id"));
+					if (itemHashes == null) {
+						itemHashes = new long[2];
+						policyHashes.put(row.getIntColumn("item_id"), itemHashes);
+					}
+					itemHashes[0] += hashRow(row);
+					itemHashes[1]++;
+				}
+			} finally {
+				rows.close();
+			}
+
+			for (int i = from; i < to; i++) {
+				Long modified = lastModified.get(itemIds[i]);
+				if (modified == null) {
+					fingerprints[i] = 0L;
+					continue;
+				}
+				long hash = mix(itemIds[i] * 0x9E3779B97F4A7C15L ^ modified.longValue());
+				long[] itemHashes = policyHashes.get(itemIds[i]);
+				if (itemHashes != null) {
+					hash = mix(hash * 31 + itemHashes[0]);
+					hash = mix(hash * 31 + itemHashes[1]);
+				}
+				fingerprints[i] = hash != 0L ? hash : 1L;
+			}
+		}
+		return fingerprints;
+	}
+
+	/**
+	 * Hashes a resource and one of its policies, or the resource alone if it
+	 * has none, mixing after each column so that no two columns can cancel
+	 * each other out.
+	 */
+	private static long hashRow(TableRow row) {
+		long hash = mix(row.getIntColumn("resource_type_id") * 0x9E3779B97F4A7C15L + row.getIntColumn("resource_id"));
+		hash = mix(hash * 31 + getInt(row, "policy_id"));
+		hash = mix(hash * 31 + getInt(row, "action_id"));
+		hash = mix(hash * 31 + getInt(row, "epersongroup_id"));
+		hash = mix(hash * 31 + getInt(row, "eperson_id"));
+		hash = mix(hash * 31 + (row.isColumnNull("start_date") ? -1L : row.getDateColumn("start_date").getTime()));
+		hash = mix(hash * 31 + (row.isColumnNull("end_date") ? -1L : row.getDateColumn("end_date").getTime()));
+		hash = mix(hash * 31 + (row.isColumnNull("rptype") ? -1L : row.getStringColumn("rptype").hashCode()));
+		return hash;
+	}
+
+	private static long getInt(TableRow row, String column) {
+		return row.isColumnNull(column) ? -1L : row.getIntColumn(column);
+	}
+
+	// finalizer from MurmurHash3, so that similar inputs give unrelated fingerprints
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,226 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.dspace.content.Bundle;
+import org.dspace.content.Item;
+import org.dspace.core.Context;
+
+/**
+ * Overlaps loading items with processing them. A prefetch thread loads the
+ * next batch of items, with their bundles and bitstreams, while one or more
+ * processing threads work through the batches already loaded.
+ * <p>
+ * DSpace objects can't be shared between Contexts, so each batch is loaded
+ * into the Context of an idle ItemWorker and processed by that same worker.
+ * There is one more worker than there are processing threads, so that a batch
+ * can be loaded on one connection while changes are written on the others. A
+ * worker is only ever used by one thread at a time, so processors that aren't
+ * thread safe can still be used with a single processing thread.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class ItemPipeline implements ItemDispatcher {
+
+	private static final LoadedBatch END_OF_QUEUE = new LoadedBatch(null, null);
+	private static final int[] END_OF_IDS = new int[0];
+
+	private final int nProcessingThreads;
+	private final int batchSize;
+	private final ItemProcessorFactory processorFactory;
+	private final TraversalConfig config;
+	private final TraversalStats stats;
+
+	private final BlockingQueue<int[]> idBatches;
+	private final BlockingQueue<ItemWorker> idleWorkers;
+	private final BlockingQueue<LoadedBatch> loadedBatches;
+
+	private final List<Context> contexts = new ArrayList<Context>();
+	private final List<ItemWorker> workers = new ArrayList<ItemWorker>();
+	private final List<Thread> threads = new ArrayList<Thread>();
+
+	private int[] currentBatch;
+	private int nCurrent = 0;
+
+	public ItemPipeline(int nProcessingThreads, int batchSize, ItemProcessorFactory processorFactory,
+			TraversalConfig config, TraversalStats stats) {
+		this.nProcessingThreads = nProcessingThreads;
+		this.batchSize = batchSize;
+		this.processorFactory = processorFactory;
+		this.config = config;
+		this.stats = stats;
+		this.idBatches = new ArrayBlockingQueue<int[]>(nProcessingThreads + 1);
+		this.idleWorkers = new ArrayBlockingQueue<ItemWorker>(nProcessingThreads + 1);
+		this.loadedBatches = new ArrayBlockingQueue<LoadedBatch>(nProcessingThreads + 1);
+		this.currentBatch = new int[batchSize];
+	}
+
+	@Override
+	public void start() throws SQLException, InstantiationException, IllegalAccessException,
+			ItemProcessingException {
+		for (int i = 0; i < nProcessingThreads + 1; i++) {
+			Context workerContext = new Context();
+			contexts.add(workerContext);
+			ItemWorker worker = new ItemWorker(workerContext, processorFactory.newInstance(workerContext), config,
+					stats);
+			worker.begin();
+			workers.add(worker);
+			idleWorkers.add(worker);
+		}
+
+		threads.add(new Thread(new PrefetchRunnable(), "item-prefetch"));
+		for (int i = 0; i < nProcessingThreads; i++) {
+			threads.add(new Thread(new ProcessRunnable(), "item-worker-" + (i + 1)));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+	}
+
+	@Override
+	public void submit(int itemId) throws ItemProcessingException {
+		currentBatch[nCurrent++] = itemId;
+		if (nCurrent == batchSize) {
+			putIdBatch(currentBatch);
+			currentBatch = new int[batchSize];
+			nCurrent = 0;
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		try {
+			if (nCurrent > 0) {
+				putIdBatch(Arrays.copyOf(currentBatch, nCurrent));
+				nCurrent = 0;
+			}
+			putIdBatch(END_OF_IDS);
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} catch (ItemProcessingException e) {
+			TraversalOutput.printStackTrace(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			for (ItemWorker worker : workers) {
+				try {
+					worker.finish();
+				} catch (SQLException | IOException e) {
+					TraversalOutput.printStackTrace(e);
+				}
+			}
+			for (Context workerContext : contexts) {
+				try {
+					workerContext.complete();
+				} catch (Exception e) {
+					TraversalOutput.printStackTrace(e);
+				}
+			}
+		}
+	}
+
+	private void putIdBatch(int[] ids) throws ItemProcessingException {
+		try {
+			idBatches.put(ids);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ItemProcessingException("Interrupted while queuing items", e);
+		}
+	}
+
+	/**
+	 * Loads each batch of item IDs into the Context of an idle worker.
+	 */
+	private class PrefetchRunnable implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				int[] ids;
+				while ((ids = idBatches.take()) != END_OF_IDS) {
+					ItemWorker worker = idleWorkers.take();
+					loadedBatches.put(new LoadedBatch(worker, load(worker.getContext(), ids)));
+				}
+				for (int i = 0; i < nProcessingThreads; i++) {
+					loadedBatches.put(END_OF_QUEUE);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private List<Item> load(Context c, int[] ids) {
+			List<Item> items = new ArrayList<Item>(ids.length);
+			for (int id : ids) {
+				try {
+					Item item = Item.find(c, id);
+					if (item != null) {
+						for (Bundle bundle : item.getBundles()) {
+							bundle.getBitstreams();
+						}
+						items.add(item);
+					}
+				} catch (SQLException | RuntimeException e) {
+					stats.recordError();
+					TraversalOutput.printStackTrace(e);
+				}
+			}
+			return items;
+		}
+	}
+
+	/**
+	 * Processes loaded batches, returning each worker to the idle queue once its
+	 * batch is done.
+	 */
+	private class ProcessRunnable implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				LoadedBatch batch;
+				while ((batch = loadedBatches.take()) != END_OF_QUEUE) {
+					for (Item item : batch.items) {
+						try {
+							batch.worker.processItem(item);
+						} catch (SQLException | IOException | RuntimeException e) {
+							stats.recordError();
+							TraversalOutput.printStackTrace(e);
+						}
+					}
+					// finish any partial batch before the worker is handed back for reloading
+					try {
+						batch.worker.processPendingItems();
+					} catch (SQLException | IOException | RuntimeException e) {
+						stats.recordError();
+						TraversalOutput.printStackTrace(e);
+					}
+					idleWorkers.put(batch.worker);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static class LoadedBatch {
+		private final ItemWorker worker;
+		private final List<Item> items;
+
+		public LoadedBatch(ItemWorker worker, List<Item> items) {
+			this.worker = worker;
+			this.items = items;
+		}
+	}
+}
@@ -3,12 +3,17 @@
  */
 package org.dspace.traverse;
 
+import java.util.Set;
+
 /**
  * @author Rahul Khanna
  *
  */
 public class ItemProcessingException extends Exception {
 
+	// items that failed when only part of a batch failed
+	private Set<Integer> failedItemIds = null;
+
 	public ItemProcessingException() {
 		super();
 		// TODO Auto-generated constructor stub
@@ -29,4 +34,21 @@ public class ItemProcessingException extends Exception {
 		// TODO Auto-generated constructor stub
 	}
 
+	/**
+	 * Thrown by ItemProcessor.processItems when only some items in a batch
+	 * failed. The cause of the first failure is kept as the cause.
+	 */
+	public ItemProcessingException(ItemProcessingException first, Set<Integer> failedItemIds) {
+		super(first.getMessage(), first.getCause() != null ? first.getCause() : first);
+		this.failedItemIds = failedItemIds;
+	}
+
+	/**
+	 * @return IDs of the items that failed if only some items in a batch
+	 *         failed, or null
+	 */
+	public Set<Integer> getFailedItemIds() {
+		return failedItemIds;
+	}
+
 }
@@ -3,6 +3,10 @@
  */
 package org.dspace.traverse;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import org.dspace.content.Collection;
 import org.dspace.content.Community;
 import org.dspace.content.Item;
@@ -12,6 +16,14 @@ import org.dspace.core.Context;
  * Interface for classes that make changes to an item. ResourceTraverser calls
  * processItem for each item within the resource (community/collection) it is
  * traversing.
+ * <p>
+ * Processors that can write changes more efficiently in bulk can return a
+ * batch size greater than 1, in which case items are passed to processItems in
+ * lists of up to that size instead. Changes held back by a processor must be
+ * written when flush is called, which happens before every commit of the
+ * processor's Context. begin is called once before the first item and end once
+ * after the last. Processors that don't need these hooks can leave them to the
+ * default implementations, which do nothing.
  * 
  * @author Rahul Khanna
  *
@@ -21,8 +33,83 @@ public interface ItemProcessor {
 	public void setContext(Context c);
 	
 	public void setDryRun(boolean isDryRun);
+
+	/**
+	 * Sets the plan in which policy changes are to be recorded. Processors that
+	 * don't change policies can ignore it.
+	 * 
+	 * @param plan
+	 *            change plan, or null if none is being written
+	 */
+	public default void setChangePlan(ChangePlan plan) {
+		// Do nothing
+	}
 	
+	/**
+	 * Returns true if separate instances of this processor, each with its own
+	 * Context, can process items concurrently on different threads.
+	 * 
+	 * @return true if the processor can be used with multiple worker threads
+	 */
+	public default boolean isThreadSafe() {
+		return false;
+	}
+
+	public default void begin() throws ItemProcessingException {
+		// Do nothing
+	}
+
+	public default void end() throws ItemProcessingException {
+		// Do nothing
+	}
+
+	/**
+	 * Writes any changes the processor has held back, e.g. rows added to a
+	 * batched statement. Called before the processor's Context is committed.
+	 * If it fails, the items processed since the last commit are rolled back.
+	 */
+	public default void flush() throws ItemProcessingException {
+		// Do nothing
+	}
+
+	/**
+	 * Returns the maximum number of items to pass to processItems at once. If 1,
+	 * processItem is called for each item instead.
+	 * 
+	 * @return batch size
+	 */
+	public default int getBatchSize() {
+		return 1;
+	}
+
 	public void processItem(Item item) throws ItemProcessingException;
+
+	/**
+	 * Processes a batch of items. If only some of the items fail, the exception
+	 * thrown should list them so that the rest are counted as processed;
+	 * otherwise the whole batch is rolled back and counted as failed.
+	 * <p>
+	 * The default implementation calls processItem for each item. If an item
+	 * fails, the remaining items are still processed and the first failure is
+	 * rethrown afterwards along with the IDs of all the items that failed.
+	 */
+	public default void processItems(List<Item> items) throws ItemProcessingException {
+		ItemProcessingException firstException = null;
+		Set<Integer> failedItemIds = new HashSet<Integer>();
+		for (Item item : items) {
+			try {
+				processItem(item);
+			} catch (ItemProcessingException e) {
+				failedItemIds.add(item.getID());
+				if (firstException == null) {
+					firstException = e;
+				}
+			}
+		}
+		if (firstException != null) {
+			throw new ItemProcessingException(firstException, failedItemIds);
+		}
+	}
 	
 	public void processCollection(Collection collection) throws ItemProcessingException;
 	
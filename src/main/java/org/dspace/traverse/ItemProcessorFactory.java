@@ -0,0 +1,52 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dspace.core.Context;
+
+/**
+ * Creates configured instances of one or more item processor classes. Each
+ * worker thread gets its own instances bound to its own Context. If more than
+ * one class is specified, the instances are wrapped in a
+ * CompositeItemProcessor that calls them in the order specified.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class ItemProcessorFactory {
+
+	private final List<Class<? extends ItemProcessor>> processorClasses = new ArrayList<Class<? extends ItemProcessor>>();
+	private final boolean isDryRun;
+	private final ChangePlan changePlan;
+
+	public ItemProcessorFactory(String[] classNames, boolean isDryRun, ChangePlan changePlan)
+			throws ClassNotFoundException {
+		for (String className : classNames) {
+			processorClasses.add(Class.forName(className).asSubclass(ItemProcessor.class));
+		}
+		this.isDryRun = isDryRun;
+		this.changePlan = changePlan;
+	}
+
+	public ItemProcessor newInstance(Context c) throws InstantiationException, IllegalAccessException {
+		List<ItemProcessor> processors = new ArrayList<ItemProcessor>(processorClasses.size());
+		for (Class<? extends ItemProcessor> processorClass : processorClasses) {
+			processors.add(processorClass.newInstance());
+		}
+
+		ItemProcessor processor;
+		if (processors.size() == 1) {
+			processor = processors.get(0);
+		} else {
+			processor = new CompositeItemProcessor(processors);
+		}
+		processor.setContext(c);
+		processor.setDryRun(isDryRun);
+		processor.setChangePlan(changePlan);
+		return processor;
+	}
+}
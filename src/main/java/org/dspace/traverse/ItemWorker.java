@@ -0,0 +1,264 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.dspace.content.Item;
+import org.dspace.core.Context;
+import org.dspace.dsrun.LookupCache;
+import org.dspace.event.Event;
+
+/**
+ * Processes items using an item processor bound to a single Context. A worker
+ * must only be used by one thread at a time. If the processor has a batch size
+ * greater than 1, items are held until a batch is full and then passed to the
+ * processor together.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class ItemWorker {
+
+	private final Context c;
+	private final ItemProcessor itemProcessor;
+	private final TraversalStats stats;
+	private final BatchCommitter committer;
+	private final int cacheLimit;
+	private final CheckpointJournal journal;
+	private final FingerprintStore fingerprints;
+	private final int batchSize;
+	private final List<Item> pendingItems;
+
+	// items processed successfully since the last commit, and their IDs if
+	// they are to be recorded once committed
+	private int nUncommitted = 0;
+	private int[] uncommittedIds = new int[64];
+	private int nUncommittedIds = 0;
+
+	public ItemWorker(Context c, ItemProcessor itemProcessor, TraversalConfig config, TraversalStats stats) {
+		this.c = c;
+		this.itemProcessor = itemProcessor;
+		this.stats = stats;
+		this.committer = config.createCommitter(c, stats);
+		this.cacheLimit = config.getCacheLimit();
+		this.journal = config.getJournal();
+		this.fingerprints = config.getFingerprints();
+		this.batchSize = itemProcessor.getBatchSize();
+		this.pendingItems = new ArrayList<Item>(Math.max(batchSize, 1));
+	}
+
+	public Context getContext() {
+		return c;
+	}
+
+	public void processItem(int itemId) throws SQLException, IOException {
+		Item item = Item.find(c, itemId);
+		if (item != null) {
+			processItem(item);
+		}
+	}
+
+	/**
+	 * Calls the processor's begin hook. Must be called before the first item is
+	 * processed.
+	 */
+	public void begin() throws ItemProcessingException {
+		itemProcessor.begin();
+	}
+
+	public void processItem(Item item) throws SQLException, IOException {
+		if (batchSize > 1) {
+			pendingItems.add(item);
+			if (pendingItems.size() >= batchSize) {
+				processPendingItems();
+			}
+			return;
+		}
+
+		long start = System.nanoTime();
+		try {
+			itemProcessor.processItem(item);
+			stats.recordSuccess();
+			addUncommitted(item.getID());
+		} catch (ItemProcessingException e) {
+			stats.recordError();
+			TraversalOutput.printStackTrace(e.getCause() != null ? e.getCause() : e);
+		}
+		stats.recordItemLatency(System.nanoTime() - start);
+		if (committer != null && committer.itemProcessed()) {
+			commit();
+		}
+		releaseItem(item);
+	}
+
+	/**
+	 * Passes the items held for the current batch to the processor, even if the
+	 * batch isn't full. If the processor reports which items failed, only those
+	 * are counted as errors. Otherwise the batch's changes are rolled back to a
+	 * savepoint taken before it, so that they aren't committed with the items
+	 * processed before it, and every item in it is counted as an error.
+	 */
+	public void processPendingItems() throws SQLException, IOException {
+		if (pendingItems.isEmpty()) {
+			return;
+		}
+
+		int nItems = pendingItems.size();
+		long start = System.nanoTime();
+		Savepoint savepoint = c.getDBConnection().setSavepoint();
+		int nEvents = c.getEvents() != null ? c.getEvents().size() : 0;
+		Set<Integer> failedItemIds = Collections.emptySet();
+		try {
+			itemProcessor.processItems(pendingItems);
+		} catch (ItemProcessingException e) {
+			TraversalOutput.printStackTrace(e.getCause() != null ? e.getCause() : e);
+			if (e.getFailedItemIds() != null) {
+				failedItemIds = e.getFailedItemIds();
+			} else {
+				rollbackBatch(savepoint, nEvents);
+				failedItemIds = new HashSet<Integer>();
+				for (Item item : pendingItems) {
+					failedItemIds.add(item.getID());
+				}
+			}
+		}
+		long latencyPerItem = (System.nanoTime() - start) / nItems;
+
+		boolean isCommitDue = false;
+		for (Item item : pendingItems) {
+			if (failedItemIds.contains(item.getID())) {
+				stats.recordError();
+			} else {
+				stats.recordSuccess();
+				addUncommitted(item.getID());
+			}
+			stats.recordItemLatency(latencyPerItem);
+			if (committer != null && committer.itemProcessed()) {
+				isCommitDue = true;
+			}
+		}
+		if (isCommitDue) {
+			commit();
+		}
+		for (Item item : pendingItems) {
+			releaseItem(item);
+		}
+		pendingItems.clear();
+	}
+
+	/**
+	 * Undoes the changes made to the database since the savepoint and drops
+	 * the events queued for them.
+	 */
+	private void rollbackBatch(Savepoint savepoint, int nEvents) throws SQLException {
+		c.getDBConnection().rollback(savepoint);
+		List<Event> events = c.getEvents();
+		while (events != null && events.size() > nEvents) {
+			events.remove(events.size() - 1);
+		}
+		LookupCache.clearCache(c);
+	}
+
+	/**
+	 * Processes any items held for a batch, calls the processor's end hook and
+	 * commits.
+	 */
+	public void finish() throws SQLException, IOException {
+		processPendingItems();
+		try {
+			itemProcessor.end();
+		} catch (ItemProcessingException e) {
+			stats.recordError();
+			TraversalOutput.printStackTrace(e.getCause() != null ? e.getCause() : e);
+		}
+		commit();
+	}
+
+	/**
+	 * Removes a processed item, its bundles and bitstreams from the Context
+	 * cache. If the cache still holds more objects than the configured limit,
+	 * e.g. groups and policies loaded by the processor, it is cleared. The
+	 * cache size is recorded before the item is removed so that the peak
+	 * includes the item's own objects.
+	 */
+	private void releaseItem(Item item) throws SQLException {
+		stats.recordMemoryUse(c.getCacheSize());
+		item.decache();
+		if (cacheLimit > 0 && c.getCacheSize() > cacheLimit) {
+			LookupCache.clearCache(c);
+			stats.recordCacheClear();
+		}
+	}
+
+	/**
+	 * Flushes the processor, then commits any items processed since the last
+	 * periodic commit and records them in the checkpoint journal. If the
+	 * processor fails to flush, the transaction is rolled back instead and the
+	 * uncommitted items are counted as errors, so that they are processed again
+	 * on resume.
+	 */
+	public void commit() throws SQLException, IOException {
+		try {
+			itemProcessor.flush();
+		} catch (ItemProcessingException e) {
+			TraversalOutput.printStackTrace(e.getCause() != null ? e.getCause() : e);
+			LookupCache.rollback(c);
+			if (nUncommitted > 0) {
+				stats.recordRolledBack(nUncommitted);
+			} else {
+				stats.recordError();
+			}
+			TraversalOutput.print("[%s] Unable to flush item processor. %d uncommitted items rolled back.",
+					Thread.currentThread().getName(), nUncommitted);
+			nUncommitted = 0;
+			nUncommittedIds = 0;
+			return;
+		}
+		if (committer != null) {
+			committer.commit();
+		} else if (nUncommitted > 0) {
+			LookupCache.commit(c);
+		}
+		recordCommitted();
+	}
+
+	private void addUncommitted(int itemId) {
+		nUncommitted++;
+		if (journal == null && fingerprints == null) {
+			return;
+		}
+		if (nUncommittedIds == uncommittedIds.length) {
+			uncommittedIds = Arrays.copyOf(uncommittedIds, nUncommittedIds * 2);
+		}
+		uncommittedIds[nUncommittedIds++] = itemId;
+	}
+
+	/**
+	 * Records the items committed in the checkpoint journal and their new
+	 * fingerprints in the fingerprint store.
+	 */
+	private void recordCommitted() throws SQLException, IOException {
+		nUncommitted = 0;
+		if (nUncommittedIds == 0) {
+			return;
+		}
+		if (journal != null) {
+			journal.markProcessed(uncommittedIds, nUncommittedIds);
+		}
+		if (fingerprints != null) {
+			long[] itemFingerprints = new ItemFingerprinter(c).fingerprint(uncommittedIds, nUncommittedIds);
+			fingerprints.put(uncommittedIds, itemFingerprints, nUncommittedIds);
+		}
+		nUncommittedIds = 0;
+	}
+}
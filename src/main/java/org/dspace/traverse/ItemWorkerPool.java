@@ -0,0 +1,124 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.dspace.core.Context;
+
+/**
+ * Hands item IDs out to a fixed number of worker threads. Each thread has its
+ * own Context and its own instance of the item processor, so DSpace objects
+ * are never shared between threads. Worker Contexts are completed when the
+ * pool is shut down.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class ItemWorkerPool implements ItemDispatcher {
+
+	private static final Integer END_OF_QUEUE = Integer.valueOf(-1);
+	private static final int QUEUE_SIZE_PER_THREAD = 64;
+
+	private final int nThreads;
+	private final ItemProcessorFactory processorFactory;
+	private final TraversalConfig config;
+	private final TraversalStats stats;
+	private final BlockingQueue<Integer> queue;
+
+	private final List<Context> contexts = new ArrayList<Context>();
+	private final List<Thread> threads = new ArrayList<Thread>();
+
+	public ItemWorkerPool(int nThreads, ItemProcessorFactory processorFactory, TraversalConfig config,
+			TraversalStats stats) {
+		this.nThreads = nThreads;
+		this.processorFactory = processorFactory;
+		this.config = config;
+		this.stats = stats;
+		this.queue = new ArrayBlockingQueue<Integer>(nThreads * QUEUE_SIZE_PER_THREAD);
+	}
+
+	@Override
+	public void start() throws SQLException, InstantiationException, IllegalAccessException,
+			ItemProcessingException {
+		for (int i = 0; i < nThreads; i++) {
+			Context workerContext = new Context();
+			contexts.add(workerContext);
+			ItemWorker worker = new ItemWorker(workerContext, processorFactory.newInstance(workerContext), config,
+					stats);
+			worker.begin();
+			Thread thread = new Thread(new WorkerRunnable(worker), "item-worker-" + (i + 1));
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+	}
+
+	@Override
+	public void submit(int itemId) throws ItemProcessingException {
+		try {
+			queue.put(Integer.valueOf(itemId));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ItemProcessingException("Interrupted while queuing item " + itemId, e);
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		try {
+			for (int i = 0; i < threads.size(); i++) {
+				queue.put(END_OF_QUEUE);
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			for (Context workerContext : contexts) {
+				try {
+					workerContext.complete();
+				} catch (Exception e) {
+					TraversalOutput.printStackTrace(e);
+				}
+			}
+		}
+	}
+
+	private class WorkerRunnable implements Runnable {
+
+		private final ItemWorker worker;
+
+		public WorkerRunnable(ItemWorker worker) {
+			this.worker = worker;
+		}
+
+		@Override
+		public void run() {
+			try {
+				Integer itemId;
+				while ((itemId = queue.take()) != END_OF_QUEUE) {
+					try {
+						worker.processItem(itemId.intValue());
+					} catch (SQLException | IOException | RuntimeException e) {
+						stats.recordError();
+						TraversalOutput.printStackTrace(e);
+					}
+				}
+				worker.finish();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (SQLException | IOException e) {
+				TraversalOutput.printStackTrace(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Minimal JSON support for the line-oriented files written and read by the
+ * tools, without depending on a JSON library.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public final class JsonUtil {
+
+	private JsonUtil() {
+	}
+
+	/**
+	 * Escapes a string as a JSON string literal.
+	 */
+	public static String quote(String str) {
+		StringBuilder sb = new StringBuilder(str.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < str.length(); i++) {
+			char ch = str.charAt(i);
+			switch (ch) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (ch < 0x20) {
+					sb.append(String.format("\\u%04x", (int) ch));
+				} else {
+					sb.append(ch);
+				}
+			}
+		}
+		sb.append('"');
+		return sb.toString();
+	}
+
+	/**
+	 * Parses a JSON object whose values are strings, numbers or null. Nested
+	 * objects and arrays aren't supported.
+	 */
+	public static Map<String, String> parseFlatObject(String json) throws IllegalArgumentException {
+		Map<String, String> fields = new LinkedHashMap<String, String>();
+		int[] pos = { skipWhitespace(json, 0) };
+		expect(json, pos, '{');
+		if (peek(json, pos) == '}') {
+			return fields;
+		}
+		while (true) {
+			String name = parseString(json, pos);
+			expect(json, pos, ':');
+			String value;
+			if (peek(json, pos) == '"') {
+				value = parseString(json, pos);
+			} else {
+				int start = pos[0];
+				while (pos[0] < json.length() && ",} \t".indexOf(json.charAt(pos[0])) < 0) {
+					pos[0]++;
+				}
+				value = json.substring(start, pos[0]);
+				if ("null".equals(value)) {
+					value = null;
+				}
+				pos[0] = skipWhitespace(json, pos[0]);
+			}
+			fields.put(name, value);
+			if (peek(json, pos) == ',') {
+				pos[0]++;
+				pos[0] = skipWhitespace(json, pos[0]);
+			} else {
+				expect(json, pos, '}');
+				return fields;
+			}
+		}
+	}
+
+	private static String parseString(String json, int[] pos) {
+		expect(json, pos, '"');
+		StringBuilder sb = new StringBuilder();
+		while (pos[0] < json.length()) {
+			char ch = json.charAt(pos[0]++);
+			if (ch == '"') {
+				pos[0] = skipWhitespace(json, pos[0]);
+				return sb.toString();
+			} else if (ch == '\\' && pos[0] < json.length()) {
+				char escaped = json.charAt(pos[0]++);
+				switch (escaped) {
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'b':
+					sb.append('\b');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'u':
+					sb.append((char) Integer.parseInt(json.substring(pos[0], pos[0] + 4), 16));
+					pos[0] += 4;
+					break;
+				default:
+					sb.append(escaped);
+				}
+			} else {
+				sb.append(ch);
+			}
+		}
+		throw new IllegalArgumentException("Unterminated string: " + json);
+	}
+
+	private static char peek(String json, int[] pos) {
+		if (pos[0] >= json.length()) {
+			throw new IllegalArgumentException("Unexpected end of JSON: " + json);
+		}
+		return json.charAt(pos[0]);
+	}
+
+	private static void expect(String json, int[] pos, char expected) {
+		if (peek(json, pos) != expected) {
+			throw new IllegalArgumentException(String.format("Expected '%c' at %d: %s", expected, pos[0], json));
+		}
+		pos[0] = skipWhitespace(json, pos[0] + 1);
+	}
+
+	private static int skipWhitespace(String json, int pos) {
+		while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+			pos++;
+		}
+		return pos;
+	}
+}
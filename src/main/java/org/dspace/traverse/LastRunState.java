@@ -0,0 +1,85 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.Properties;
+
+/**
+ * Stores the time the last successful traversal started so that the next one
+ * can be limited to items modified since then.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class LastRunState {
+
+	private static final String LAST_RUN_PROPERTY = "lastRunStarted";
+
+	private final Path path;
+
+	public LastRunState(Path path) {
+		this.path = path;
+	}
+
+	/**
+	 * @return start time of the last successful run, or null if there hasn't
+	 *         been one
+	 */
+	public Date read() throws IOException {
+		if (!Files.exists(path)) {
+			return null;
+		}
+		Properties props = new Properties();
+		try (InputStream in = Files.newInputStream(path)) {
+			props.load(in);
+		}
+		String lastRun = props.getProperty(LAST_RUN_PROPERTY);
+		return lastRun != null ? parseTimestamp(lastRun) : null;
+	}
+
+	public void write(Date runStarted) throws IOException {
+		Properties props = new Properties();
+		props.setProperty(LAST_RUN_PROPERTY, runStarted.toInstant().toString());
+		try (OutputStream out = Files.newOutputStream(path)) {
+			props.store(out, "ResourceTraverser state");
+		}
+	}
+
+	/**
+	 * Parses an ISO 8601 date or date-time. Values without a time zone are in
+	 * the local time zone.
+	 * 
+	 * @param timestamp
+	 *            e.g. 2016-05-01, 2016-05-01T13:00:00 or 2016-05-01T03:00:00Z
+	 */
+	public static Date parseTimestamp(String timestamp) throws IllegalArgumentException {
+		Instant instant;
+		try {
+			instant = OffsetDateTime.parse(timestamp).toInstant();
+		} catch (DateTimeParseException e1) {
+			try {
+				instant = LocalDateTime.parse(timestamp).atZone(ZoneId.systemDefault()).toInstant();
+			} catch (DateTimeParseException e2) {
+				try {
+					instant = LocalDate.parse(timestamp).atStartOfDay(ZoneId.systemDefault()).toInstant();
+				} catch (DateTimeParseException e3) {
+					throw new IllegalArgumentException(String.format("Invalid timestamp: %s", timestamp), e3);
+				}
+			}
+		}
+		return Date.from(instant);
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in microseconds. Each power of two is split
+ * into 8 buckets, so percentiles are accurate to within about 12%.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+
+	public void record(long micros) {
+		counts.incrementAndGet(indexOf(Math.max(0L, micros)));
+	}
+
+	/**
+	 * Returns the approximate latency below which the specified fraction of
+	 * recorded latencies fall.
+	 * 
+	 * @param fraction
+	 *            percentile as a fraction, e.g. 0.99
+	 * @return latency in microseconds, or 0 if nothing has been recorded
+	 */
+	public long getPercentile(double fraction) {
+		long total = 0L;
+		long[] snapshot = new long[counts.length()];
+		for (int i = 0; i < snapshot.length; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0L) {
+			return 0L;
+		}
+
+		long rank = (long) Math.ceil(fraction * total);
+		long cumulative = 0L;
+		for (int i = 0; i < snapshot.length; i++) {
+			cumulative += snapshot[i];
+			if (cumulative >= rank) {
+				return (lowerBoundOf(i) + lowerBoundOf(i + 1)) / 2;
+			}
+		}
+		return lowerBoundOf(snapshot.length - 1);
+	}
+
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int subBucket = (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long lowerBoundOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		int subBucket = index % SUB_BUCKETS;
+		return ((long) (SUB_BUCKETS + subBucket)) << shift;
+	}
+}
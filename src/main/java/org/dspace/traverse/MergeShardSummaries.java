@@ -0,0 +1,40 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Combines the summary files written by sharded ResourceTraverser runs with
+ * --summary into totals for the whole traversal.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class MergeShardSummaries {
+
+	public static int main(String[] args) {
+		if (args.length == 0) {
+			System.out.println("Usage: " + MergeShardSummaries.class.getName() + " SUMMARY_FILE [SUMMARY_FILE]...");
+			return 1;
+		}
+
+		TraversalSummary total = new TraversalSummary();
+		try {
+			for (String path : args) {
+				TraversalSummary summary = TraversalSummary.read(Paths.get(path));
+				System.out.format("Shard %s: %s", summary.getShard(), summary);
+				System.out.println();
+				total.add(summary);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return 1;
+		}
+		System.out.format("Total (%d shards): %s", args.length, total);
+		System.out.println();
+		return 0;
+	}
+}
@@ -0,0 +1,196 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.dspace.core.Context;
+import org.dspace.dsrun.LookupCache;
+import org.dspace.storage.rdbms.DatabaseManager;
+
+/**
+ * Applies a plan file written by a dry run directly to the resourcepolicy
+ * table using batched statements, without loading any DSpace objects. Each
+ * statement checks that the policy is still in the state it was in when the
+ * plan was made, including the group or e-person an updated or deleted policy
+ * was granted to, and that a resource to add a policy to still has none for
+ * the action; entries that no longer apply are counted as stale and
+ * skipped. An UPDATE or DELETE entry without a policy ID, for a policy added
+ * earlier in the same dry run, applies to the resource's policies for the
+ * action that are granted to that group. Changes are committed after every
+ * batch.
+ * <p>
+ * As the changes bypass the DSpace API, no events are generated for them.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class PlanApplier {
+
+	private static final int BATCH_SIZE = 1000;
+
+	private static final String ADD_POSTGRES = "INSERT INTO resourcepolicy"
+			+ " (policy_id, resource_type_id, resource_id, action_id, epersongroup_id)"
+			+ " SELECT nextval('resourcepolicy_seq'), ?, ?, ?, ?";
+	private static final String ADD_ORACLE = "INSERT INTO resourcepolicy"
+			+ " (policy_id, resource_type_id, resource_id, action_id, epersongroup_id)"
+			+ " SELECT resourcepolicy_seq.nextval, ?, ?, ?, ? FROM dual";
+	private static final String ADD_CONDITION = " WHERE NOT EXISTS (SELECT 1 FROM resourcepolicy"
+			+ " WHERE resource_type_id = ? AND resource_id = ? AND action_id = ?)";
+	private static final String GRANTEE_CONDITION = " AND COALESCE(epersongroup_id, -1) = ?"
+			+ " AND COALESCE(eperson_id, -1) = ?";
+	private static final String POLICY_CONDITION = " WHERE (policy_id = ? OR ? = -1)"
+			+ " AND resource_type_id = ? AND resource_id = ? AND action_id = ?" + GRANTEE_CONDITION;
+	private static final String UPDATE = "UPDATE resourcepolicy SET epersongroup_id = ?, eperson_id = NULL"
+			+ POLICY_CONDITION;
+	private static final String DELETE = "DELETE FROM resourcepolicy" + POLICY_CONDITION;
+
+	private final Context c;
+	private final boolean isDryRun;
+
+	private int nAdded = 0;
+	private int nUpdated = 0;
+	private int nDeleted = 0;
+	private int nStale = 0;
+	private int nInvalid = 0;
+
+	public PlanApplier(Context c, boolean isDryRun) {
+		this.c = c;
+		this.isDryRun = isDryRun;
+	}
+
+	public void apply(Path planFile) throws IOException, SQLException {
+		Connection conn = c.getDBConnection();
+		String addSql = (DatabaseManager.isOracle() ? ADD_ORACLE : ADD_POSTGRES) + ADD_CONDITION;
+		try (BufferedReader reader = Files.newBufferedReader(planFile, StandardCharsets.UTF_8);
+				PreparedStatement addStmt = conn.prepareStatement(addSql);
+				PreparedStatement updateStmt = conn.prepareStatement(UPDATE);
+				PreparedStatement deleteStmt = conn.prepareStatement(DELETE)) {
+			int nBatched = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().length() == 0) {
+					continue;
+				}
+
+				PlanEntry entry;
+				try {
+					entry = PlanEntry.fromJson(line);
+				} catch (IllegalArgumentException e) {
+					nInvalid++;
+					TraversalOutput.print("Invalid plan entry: %s", e.getMessage());
+					continue;
+				}
+
+				if (isDryRun) {
+					countDryRun(entry);
+					continue;
+				}
+
+				if (PlanEntry.ADD.equals(entry.getOp())) {
+					addStmt.setInt(1, entry.getResourceType());
+					addStmt.setInt(2, entry.getResourceId());
+					addStmt.setInt(3, entry.getAction());
+					addStmt.setInt(4, entry.getGroupId());
+					addStmt.setInt(5, entry.getResourceType());
+					addStmt.setInt(6, entry.getResourceId());
+					addStmt.setInt(7, entry.getAction());
+					addStmt.addBatch();
+				} else if (PlanEntry.UPDATE.equals(entry.getOp())) {
+					updateStmt.setInt(1, entry.getGroupId());
+					setPolicyCondition(updateStmt, 2, entry);
+					updateStmt.addBatch();
+				} else {
+					setPolicyCondition(deleteStmt, 1, entry);
+					deleteStmt.addBatch();
+				}
+
+				if (++nBatched == BATCH_SIZE) {
+					executeBatches(addStmt, updateStmt, deleteStmt);
+					nBatched = 0;
+				}
+			}
+			if (nBatched > 0) {
+				executeBatches(addStmt, updateStmt, deleteStmt);
+			}
+		}
+	}
+
+	/**
+	 * Binds POLICY_CONDITION's parameters, starting at index.
+	 */
+	private static void setPolicyCondition(PreparedStatement stmt, int index, PlanEntry entry) throws SQLException {
+		stmt.setInt(index, entry.getPolicyId());
+		stmt.setInt(index + 1, entry.getPolicyId());
+		stmt.setInt(index + 2, entry.getResourceType());
+		stmt.setInt(index + 3, entry.getResourceId());
+		stmt.setInt(index + 4, entry.getAction());
+		stmt.setInt(index + 5, entry.getOldGroupId());
+		stmt.setInt(index + 6, entry.getOldEPersonId());
+	}
+
+	private void countDryRun(PlanEntry entry) {
+		if (PlanEntry.ADD.equals(entry.getOp())) {
+			nAdded++;
+		} else if (PlanEntry.UPDATE.equals(entry.getOp())) {
+			nUpdated++;
+		} else {
+			nDeleted++;
+		}
+	}
+
+	private void executeBatches(PreparedStatement addStmt, PreparedStatement updateStmt,
+			PreparedStatement deleteStmt) throws SQLException {
+		int[] added = addStmt.executeBatch();
+		int[] updated = updateStmt.executeBatch();
+		int[] deleted = deleteStmt.executeBatch();
+		LookupCache.commit(c);
+
+		nAdded += countApplied(added);
+		nUpdated += countApplied(updated);
+		nDeleted += countApplied(deleted);
+		TraversalOutput.print("Applied %d ADD, %d UPDATE, %d DELETE so far. %d stale.", nAdded, nUpdated, nDeleted,
+				nStale);
+	}
+
+	private int countApplied(int[] updateCounts) {
+		int nApplied = 0;
+		for (int updateCount : updateCounts) {
+			if (updateCount > 0 || updateCount == Statement.SUCCESS_NO_INFO) {
+				nApplied++;
+			} else {
+				nStale++;
+			}
+		}
+		return nApplied;
+	}
+
+	public int getAddedCount() {
+		return nAdded;
+	}
+
+	public int getUpdatedCount() {
+		return nUpdated;
+	}
+
+	public int getDeletedCount() {
+		return nDeleted;
+	}
+
+	public int getStaleCount() {
+		return nStale;
+	}
+
+	public int getInvalidCount() {
+		return nInvalid;
+	}
+}
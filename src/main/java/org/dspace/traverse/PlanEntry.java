@@ -0,0 +1,148 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.util.Map;
+
+/**
+ * A single resource policy change in a change plan, stored as one line of
+ * JSON. ADD entries create a policy for the resource, UPDATE entries point an
+ * existing policy at a group, and DELETE entries remove an existing policy.
+ * UPDATE and DELETE entries also hold the group or e-person the policy was
+ * granted to when the plan was made, so that a policy changed since then can
+ * be detected.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class PlanEntry {
+
+	public static final String ADD = "ADD";
+	public static final String UPDATE = "UPDATE";
+	public static final String DELETE = "DELETE";
+
+	private final String op;
+	private final int policyId;
+	private final int resourceType;
+	private final int resourceId;
+	private final int action;
+	private final int groupId;
+	private final int oldGroupId;
+	private final int oldEPersonId;
+	private final String path;
+
+	/**
+	 * @param policyId
+	 *            ID of the policy to update or delete, or -1 for ADD or for a
+	 *            policy added earlier in the same dry run, which is then
+	 *            found by its resource, action and group
+	 * @param groupId
+	 *            ID of the group to add or update the policy with, or -1 for
+	 *            DELETE
+	 * @param oldGroupId
+	 *            ID of the group the policy was granted to, or -1 for ADD or a
+	 *            policy granted to an e-person
+	 * @param oldEPersonId
+	 *            ID of the e-person the policy was granted to, or -1 for ADD or
+	 *            a policy granted to a group
+	 * @param path
+	 *            human readable path of the resource, for reviewing the plan
+	 */
+	public PlanEntry(String op, int policyId, int resourceType, int resourceId, int action, int groupId,
+			int oldGroupId, int oldEPersonId, String path) {
+		this.op = op;
+		this.policyId = policyId;
+		this.resourceType = resourceType;
+		this.resourceId = resourceId;
+		this.action = action;
+		this.groupId = groupId;
+		this.oldGroupId = oldGroupId;
+		this.oldEPersonId = oldEPersonId;
+		this.path = path;
+	}
+
+	public String getOp() {
+		return op;
+	}
+
+	public int getPolicyId() {
+		return policyId;
+	}
+
+	public int getResourceType() {
+		return resourceType;
+	}
+
+	public int getResourceId() {
+		return resourceId;
+	}
+
+	public int getAction() {
+		return action;
+	}
+
+	public int getGroupId() {
+		return groupId;
+	}
+
+	public int getOldGroupId() {
+		return oldGroupId;
+	}
+
+	public int getOldEPersonId() {
+		return oldEPersonId;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public String toJson() {
+		StringBuilder json = new StringBuilder(128);
+		json.append("{\"op\":").append(JsonUtil.quote(op));
+		if (policyId >= 0) {
+			json.append(",\"policy_id\":").append(policyId);
+		}
+		json.append(",\"resource_type_id\":").append(resourceType);
+		json.append(",\"resource_id\":").append(resourceId);
+		json.append(",\"action_id\":").append(action);
+		if (groupId >= 0) {
+			json.append(",\"epersongroup_id\":").append(groupId);
+		}
+		if (oldGroupId >= 0) {
+			json.append(",\"old_epersongroup_id\":").append(oldGroupId);
+		}
+		if (oldEPersonId >= 0) {
+			json.append(",\"old_eperson_id\":").append(oldEPersonId);
+		}
+		if (path != null) {
+			json.append(",\"path\":").append(JsonUtil.quote(path));
+		}
+		json.append('}');
+		return json.toString();
+	}
+
+	public static PlanEntry fromJson(String line) throws IllegalArgumentException {
+		Map<String, String> fields = JsonUtil.parseFlatObject(line);
+		String op = fields.get("op");
+		if (!ADD.equals(op) && !UPDATE.equals(op) && !DELETE.equals(op)) {
+			throw new IllegalArgumentException("Invalid op in plan entry: " + line);
+		}
+		return new PlanEntry(op, intField(fields, "policy_id", -1), intField(fields, "resource_type_id", null),
+				intField(fields, "resource_id", null), intField(fields, "action_id", null),
+				intField(fields, "epersongroup_id", -1), intField(fields, "old_epersongroup_id", -1),
+				intField(fields, "old_eperson_id", -1), fields.get("path"));
+	}
+
+	private static int intField(Map<String, String> fields, String name, Integer defaultValue) {
+		String value = fields.get(name);
+		if (value == null) {
+			if (defaultValue == null) {
+				throw new IllegalArgumentException("Missing field in plan entry: " + name);
+			}
+			return defaultValue.intValue();
+		}
+		return Integer.parseInt(value);
+	}
+}
@@ -3,7 +3,20 @@
  */
 package org.dspace.traverse;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -13,12 +26,11 @@ import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
 import org.dspace.content.Collection;
 import org.dspace.content.Community;
-import org.dspace.content.DSpaceObject;
 import org.dspace.content.Item;
 import org.dspace.content.ItemIterator;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
-import org.dspace.handle.HandleManager;
+import org.dspace.dsrun.LookupCache;
 
 /**
  * Traverses through child items of a specified community or collection and
@@ -32,17 +44,87 @@ import org.dspace.handle.HandleManager;
 public class ResourceTraverser {
 	
 	private static Context c;
+	private static ItemProcessorFactory itemProcessorFactory;
 	private static ItemProcessor itemProcessor;
+	private static ItemWorker itemWorker;
+	private static ItemDispatcher dispatcher;
+	private static BulkItemProcessor bulkProcessor = null;
+	private static int bulkBatchSize = 0;
 	private static boolean isDryRun;
+	private static int nThreads = 1;
+	private static int prefetchSize = 0;
+	private static boolean isSqlEnumeration = false;
+	private static ShardSpec shard = null;
+	private static Date modifiedSince = null;
+	private static LastRunState lastRunState = null;
+	private static final TraversalConfig config = new TraversalConfig();
 	
-	private static int nSuccess = 0;
-	private static int nError = 0;
+	private static final TraversalStats stats = new TraversalStats();
+	private static final TraversalMonitor monitor = new TraversalMonitor(stats);
+	private static int statusInterval = 60;
+	
+	// IDs of items already visited during this run
+	private static final BitSet visitedItems = new BitSet();
+
+	// items rewritten per transaction in bulk mode when enumerating using SQL
+	private static final int BULK_BATCH_SIZE = 10000;
+
+	// items whose fingerprints are checked together before they are processed
+	private static final int FINGERPRINT_BATCH_SIZE = 1000;
+	private static final int[] unverifiedIds = new int[FINGERPRINT_BATCH_SIZE];
+	private static int nUnverified = 0;
 	
 	public static int main(String[] args) {
+		try {
+			return traverse(args);
+		} finally {
+			TraversalOutput.flush();
+		}
+	}
 
+	private static int traverse(String[] args) {
 		Options cliOptions = new Options();
-		cliOptions.addOption("p", "processor", true, "fully qualified classname of item processor");
+		cliOptions.addOption("p", "processor", true,
+				"fully qualified classname of item processor. Repeat or separate with commas to apply several processors, in order, in one traversal");
 		cliOptions.addOption("n", "dry-run", false, "dry run - changes saved");
+		cliOptions.addOption("t", "threads", true, "number of worker threads processing items, each with its own Context (default 1)");
+		cliOptions.addOption(null, "commit-every", true, "commit changes after every N items instead of once at the end");
+		cliOptions.addOption(null, "adaptive-commit", false,
+				"grow or shrink the --commit-every batch size based on how long each commit takes");
+		cliOptions.addOption(null, "time-commits", false, "print the time taken by each periodic commit");
+		cliOptions.addOption(null, "cache-limit", true,
+				"clear a Context's object cache when it holds more than N objects (default: no limit)");
+		cliOptions.addOption(null, "journal", true, "record committed items in the specified checkpoint journal file. Not allowed with --dry-run");
+		cliOptions.addOption(null, "resume", true,
+				"skip items recorded in the specified checkpoint journal file and continue recording in it");
+		cliOptions.addOption(null, "enumerate-sql", false,
+				"find the items beneath each handle using set-based queries before processing them");
+		cliOptions.addOption(null, "prefetch", true,
+				"load items in batches of N, with their bundles and bitstreams, while earlier batches are processed");
+		cliOptions.addOption(null, "status-interval", true,
+				"print throughput, latency, errors and time remaining every N seconds, 0 to disable (default 60)");
+		cliOptions.addOption(null, "handles-file", true,
+				"read handles to process from the specified file, one per line, or from standard input if '-'");
+		cliOptions.addOption(null, "shard", true,
+				"only process items where item_id mod n = i, specified as i/n. Communities and collections are only processed by shard 0");
+		cliOptions.addOption(null, "summary", true,
+				"write the counts for this run to the specified file, for combining with MergeShardSummaries");
+		cliOptions.addOption(null, "since", true,
+				"only process items modified at or after the specified ISO 8601 date or date-time. Implies --enumerate-sql");
+		cliOptions.addOption(null, "since-last-run", true,
+				"only process items modified since the last successful run recorded in the specified state file. Implies --enumerate-sql");
+		cliOptions.addOption(null, "summary-only", false,
+				"instead of a line per change, print the number of ADD, UPDATE and DELETE changes per collection at the end");
+		cliOptions.addOption(null, "plan", true,
+				"with --dry-run, write the policy changes that would be made to the specified plan file, one JSON object per line");
+		cliOptions.addOption(null, "apply-plan", true,
+				"apply the policy changes in the specified plan file directly, without traversing any handles");
+		cliOptions.addOption(null, "bulk", false,
+				"rewrite the items in each collection directly in the database in one transaction, if the item processor supports it");
+		cliOptions.addOption(null, "bulk-batch", true,
+				"with --bulk, commit after every N items instead of once per collection");
+		cliOptions.addOption(null, "fingerprints", true,
+				"skip items that haven't changed since they were last processed successfully by the same processors, as recorded in the specified fingerprint file. The file is not updated in a dry run");
 		cliOptions.addOption("h", "help", false, "display this help");
 
 		CommandLineParser cliParser = new PosixParser();
@@ -50,7 +132,7 @@ public class ResourceTraverser {
 		try {
 			cmdLine = cliParser.parse(cliOptions, args);
 		} catch (ParseException e) {
-			e.printStackTrace();
+			TraversalOutput.printStackTrace(e);
 			return 1;
 		}
 
@@ -60,41 +142,199 @@ public class ResourceTraverser {
 		}
 
 		if (cmdLine.hasOption("dry-run")) {
-			System.out.println("Resource traversal will be performed in Dry Run mode.");
+			print("Resource traversal will be performed in Dry Run mode.");
 			isDryRun = true;
 		} else {
 			isDryRun = false;
 		}
 
+		if (cmdLine.hasOption("apply-plan")) {
+			return applyPlan(cmdLine.getOptionValue("apply-plan"));
+		}
+
+		if (cmdLine.hasOption("plan") && !isDryRun) {
+			print("A plan can only be written in Dry Run mode.");
+			return 1;
+		}
+
+		// nothing is committed in a dry run, so nothing can be recorded as processed
+		if ((cmdLine.hasOption("journal") || cmdLine.hasOption("resume")) && isDryRun) {
+			print("A checkpoint journal can't be used in Dry Run mode.");
+			return 1;
+		}
+
+		TraversalOutput.setSummaryOnly(cmdLine.hasOption("summary-only"));
+
+		try {
+			if (cmdLine.hasOption("threads")) {
+				nThreads = Integer.parseInt(cmdLine.getOptionValue("threads"));
+				if (nThreads < 1) {
+					print("Number of threads must be at least 1.");
+					return 1;
+				}
+			}
+
+			if (cmdLine.hasOption("cache-limit")) {
+				config.setCacheLimit(Integer.parseInt(cmdLine.getOptionValue("cache-limit")));
+			}
+
+			if (cmdLine.hasOption("prefetch")) {
+				prefetchSize = Integer.parseInt(cmdLine.getOptionValue("prefetch"));
+				if (prefetchSize < 1) {
+					print("Prefetch batch size must be at least 1.");
+					return 1;
+				}
+			}
+
+			if (cmdLine.hasOption("status-interval")) {
+				statusInterval = Integer.parseInt(cmdLine.getOptionValue("status-interval"));
+			}
+
+			if (cmdLine.hasOption("bulk-batch")) {
+				bulkBatchSize = Integer.parseInt(cmdLine.getOptionValue("bulk-batch"));
+				if (bulkBatchSize < 1) {
+					print("Bulk batch size must be at least 1.");
+					return 1;
+				}
+			}
+
+			if (cmdLine.hasOption("commit-every")) {
+				config.setCommitEvery(Integer.parseInt(cmdLine.getOptionValue("commit-every")));
+				config.setAdaptiveCommit(cmdLine.hasOption("adaptive-commit"));
+				config.setTimeCommits(cmdLine.hasOption("time-commits"));
+			}
+		} catch (NumberFormatException e) {
+			print("Invalid number: %s", e.getMessage());
+			printHelp(cliOptions);
+			return 1;
+		}
+
+		if (cmdLine.hasOption("shard")) {
+			try {
+				shard = ShardSpec.parse(cmdLine.getOptionValue("shard"));
+			} catch (IllegalArgumentException e) {
+				print("%s", e.getMessage());
+				return 1;
+			}
+			print("Processing shard %s.", shard);
+		}
+
+		isSqlEnumeration = cmdLine.hasOption("enumerate-sql");
+
+		Date runStarted = new Date();
+		try {
+			if (cmdLine.hasOption("since")) {
+				modifiedSince = LastRunState.parseTimestamp(cmdLine.getOptionValue("since"));
+			} else if (cmdLine.hasOption("since-last-run")) {
+				lastRunState = new LastRunState(Paths.get(cmdLine.getOptionValue("since-last-run")));
+				modifiedSince = lastRunState.read();
+				if (modifiedSince == null) {
+					print("No previous run recorded. All items will be processed.");
+				}
+			}
+		} catch (IllegalArgumentException | IOException e) {
+			TraversalOutput.printStackTrace(e);
+			return 1;
+		}
+		if (modifiedSince != null) {
+			print("Only processing items modified since %s.", modifiedSince);
+			// last_modified can only be checked without loading items when enumerating using SQL
+			isSqlEnumeration = true;
+		}
+
 		int retVal = 0;
 		try {
+			openJournal(cmdLine);
+			openFingerprints(cmdLine);
+			if (cmdLine.hasOption("plan")) {
+				config.setChangePlan(new ChangePlan(Paths.get(cmdLine.getOptionValue("plan"))));
+			}
 			initContext();
 
 			if (cmdLine.hasOption("processor")) {
-				instantiateItemProcessor(cmdLine.getOptionValue("processor"));
+				instantiateItemProcessor(cmdLine.getOptionValues("processor"));
 			} else {
 				throw new ItemProcessingException("No item processor specified.");
 			}
 
+			if (cmdLine.hasOption("bulk")) {
+				if (!(itemProcessor instanceof BulkItemProcessor)) {
+					throw new ItemProcessingException("Item processor doesn't support bulk mode.");
+				}
+				bulkProcessor = (BulkItemProcessor) itemProcessor;
+				if (nThreads > 1 || prefetchSize > 0) {
+					print("Items are rewritten on a single thread in bulk mode.");
+					nThreads = 1;
+					prefetchSize = 0;
+				}
+			}
+
+			startWorkers();
+			stats.start();
+			monitor.start(statusInterval);
+
 			String[] handles = cmdLine.getArgs();
-			if (handles != null && handles.length > 0) {
-				traverseHandles(handles);
+			String handlesFile = cmdLine.getOptionValue("handles-file");
+			if ((handles != null && handles.length > 0) || handlesFile != null) {
+				traverseHandles(handles, handlesFile);
 			} else {
 				throw new ItemProcessingException("No handles to process");
 			}
-		} catch (SQLException | ClassNotFoundException | InstantiationException | IllegalAccessException
-				| ItemProcessingException e) {
-			e.printStackTrace();
+		} catch (SQLException | IOException | ClassNotFoundException | InstantiationException
+				| IllegalAccessException | ItemProcessingException e) {
+			TraversalOutput.printStackTrace(e);
 			retVal = 1;
 		} finally {
+			stopWorkers();
+			monitor.stop();
+			finishMainWorker();
 			closeContext();
-			System.out.format("Finished. %d success, %d errors, %d total.", nSuccess, nError, nSuccess + nError);
-			System.out.println();
+			closeJournal();
+			closeFingerprints();
+			closePlan();
+			if (TraversalOutput.isSummaryOnly()) {
+				TraversalOutput.printChangeSummary();
+			}
+			print("Finished. %d success, %d errors, %d total.", stats.getSuccessCount(),
+					stats.getErrorCount(), stats.getTotalCount());
+			print("%s", monitor.getStatus());
+			if (shard != null) {
+				print("Shard %s: %d items belonging to other shards skipped.", shard,
+						stats.getOtherShardCount());
+			}
+			if (lastRunState != null) {
+				saveLastRunState(runStarted, retVal);
+			}
+			if (cmdLine.hasOption("summary")) {
+				writeSummary(cmdLine.getOptionValue("summary"));
+			}
+			print("%d duplicate visits to items in multiple collections skipped.", stats.getDuplicateCount());
+			if (config.isResume()) {
+				print("%d items skipped as already processed.", stats.getResumedCount());
+			}
+			if (config.getFingerprints() != null) {
+				print("%d items skipped as unchanged since last processed.", stats.getUnchangedCount());
+			}
+			if (bulkProcessor != null) {
+				print("%d items skipped as they can't be processed in bulk.", stats.getBulkSkippedCount());
+			}
+			if (stats.getCommitCount() > 0) {
+				print("%d periodic commits, average %d ms, maximum %d ms.", stats.getCommitCount(),
+						stats.getAverageCommitMillis(), stats.getMaxCommitMillis());
+			}
+			print("Lookup cache %d hits, %d misses.", LookupCache.getHitCount(), LookupCache.getMissCount());
+			print("Peak Context cache size %d objects (%d clears). Peak heap used %d MB of %d MB maximum.",
+					stats.getPeakCacheSize(), stats.getCacheClearCount(), stats.getPeakHeapUsed() / (1024 * 1024),
+					Runtime.getRuntime().maxMemory() / (1024 * 1024));
 		}
 
 		return retVal;
 	}
 
+	private static void print(String str, Object... varargs) {
+		TraversalOutput.print(str, varargs);
+	}
+
 	private static void printHelp(Options cliOptions) {
 		HelpFormatter formatter = new HelpFormatter();
 		formatter.printHelp("ResourceTraverser", cliOptions);
@@ -109,42 +349,310 @@ public class ResourceTraverser {
 			try {
 				c.complete();
 			} catch (Exception e) {
-				e.printStackTrace();
+				TraversalOutput.printStackTrace(e);
+			}
+		}
+	}
+
+	private static void openJournal(CommandLine cmdLine) throws IOException {
+		String journalPath = null;
+		if (cmdLine.hasOption("resume")) {
+			journalPath = cmdLine.getOptionValue("resume");
+			config.setResume(true);
+		} else if (cmdLine.hasOption("journal")) {
+			journalPath = cmdLine.getOptionValue("journal");
+		}
+
+		if (journalPath != null) {
+			CheckpointJournal journal = new CheckpointJournal(new File(journalPath));
+			config.setJournal(journal);
+			if (config.isResume()) {
+				print("Resuming from %s: %d items already processed.", journalPath,
+						journal.countProcessed());
+			}
+		}
+	}
+
+	/**
+	 * Records the start of this run as the time from which the next run should
+	 * process items, unless this run failed, had errors or was a dry run.
+	 */
+	private static void saveLastRunState(Date runStarted, int retVal) {
+		if (retVal != 0 || stats.getErrorCount() > 0 || isDryRun) {
+			print("Last run state not updated.");
+			return;
+		}
+		try {
+			lastRunState.write(runStarted);
+		} catch (IOException e) {
+			TraversalOutput.printStackTrace(e);
+		}
+	}
+
+	private static void writeSummary(String path) {
+		try {
+			new TraversalSummary(shard, stats).write(Paths.get(path));
+		} catch (IOException e) {
+			TraversalOutput.printStackTrace(e);
+		}
+	}
+
+	private static void openFingerprints(CommandLine cmdLine) throws IOException {
+		if (cmdLine.hasOption("fingerprints") && cmdLine.hasOption("processor")) {
+			// the fingerprints are only valid for the processors that recorded them
+			long signature = 0L;
+			for (String optionValue : cmdLine.getOptionValues("processor")) {
+				for (char ch : optionValue.replaceAll("\\s", "").toCharArray()) {
+					signature = 31 * signature + ch;
+				}
+				signature = 31 * signature + ',';
+			}
+			FingerprintStore fingerprints = new FingerprintStore(new File(cmdLine.getOptionValue("fingerprints")),
+					signature, isDryRun);
+			config.setFingerprints(fingerprints);
+			print("Skipping unchanged items using %s: %d items recorded.", fingerprints.getFile().getPath(),
+					fingerprints.countRecorded());
+		}
+	}
+
+	private static void closeFingerprints() {
+		if (config.getFingerprints() != null) {
+			try {
+				config.getFingerprints().close();
+			} catch (IOException e) {
+				TraversalOutput.printStackTrace(e);
+			}
+		}
+	}
+
+	private static void closeJournal() {
+		if (config.getJournal() != null) {
+			try {
+				config.getJournal().close();
+			} catch (IOException e) {
+				TraversalOutput.printStackTrace(e);
+			}
+		}
+	}
+
+	private static void closePlan() {
+		if (config.getChangePlan() != null) {
+			try {
+				print("%d changes written to plan.", config.getChangePlan().close());
+			} catch (IOException e) {
+				TraversalOutput.printStackTrace(e);
+			}
+		}
+	}
+
+	private static int applyPlan(String planFile) {
+		int retVal = 0;
+		PlanApplier applier = null;
+		try {
+			initContext();
+			applier = new PlanApplier(c, isDryRun);
+			applier.apply(Paths.get(planFile));
+		} catch (SQLException | IOException e) {
+			TraversalOutput.printStackTrace(e);
+			retVal = 1;
+		} finally {
+			closeContext();
+			if (applier != null) {
+				print("Plan %s. %d ADD, %d UPDATE, %d DELETE. %d stale, %d invalid entries skipped.",
+						isDryRun ? "checked" : "applied", applier.getAddedCount(), applier.getUpdatedCount(),
+						applier.getDeletedCount(), applier.getStaleCount(), applier.getInvalidCount());
+			}
+		}
+		return retVal;
+	}
+
+	private static void finishMainWorker() {
+		if (itemWorker != null) {
+			try {
+				itemWorker.finish();
+			} catch (SQLException | IOException e) {
+				TraversalOutput.printStackTrace(e);
 			}
 		}
 	}
 
-	private static void instantiateItemProcessor(String className)
+	private static void instantiateItemProcessor(String[] optionValues)
 			throws ClassNotFoundException, InstantiationException, IllegalAccessException {
-		Class<?> clazz = Class.forName(className);
-		itemProcessor = (ItemProcessor) clazz.newInstance();
-		itemProcessor.setContext(c);
-		itemProcessor.setDryRun(isDryRun);
+		List<String> classNames = new ArrayList<String>();
+		for (String optionValue : optionValues) {
+			for (String className : optionValue.split(",")) {
+				if (className.trim().length() > 0) {
+					classNames.add(className.trim());
+				}
+			}
+		}
+		itemProcessorFactory = new ItemProcessorFactory(classNames.toArray(new String[classNames.size()]), isDryRun,
+				config.getChangePlan());
+		itemProcessor = itemProcessorFactory.newInstance(c);
+		itemWorker = new ItemWorker(c, itemProcessor, config, stats);
 	}
-	
-	private static void traverseHandles(String[] handles) throws SQLException, ItemProcessingException {
-		for (String handle : handles) {
-			processHandle(handle);
+
+	private static void startWorkers()
+			throws SQLException, InstantiationException, IllegalAccessException, ItemProcessingException {
+		itemWorker.begin();
+		if (nThreads > 1 && !itemProcessor.isThreadSafe()) {
+			print("Item processor is not thread safe. Items will be processed on a single thread.");
+			nThreads = 1;
+		}
+		if (prefetchSize > 0) {
+			print("Prefetching items in batches of %d for %d worker threads.", prefetchSize, nThreads);
+			dispatcher = new ItemPipeline(nThreads, prefetchSize, itemProcessorFactory, config, stats);
+		} else if (nThreads > 1) {
+			print("Processing items using %d worker threads.", nThreads);
+			dispatcher = new ItemWorkerPool(nThreads, itemProcessorFactory, config, stats);
+		}
+		if (dispatcher != null) {
+			dispatcher.start();
 		}
 	}
-	
-	private static void processHandle(String handle) throws SQLException, ItemProcessingException {
-		DSpaceObject resource = HandleManager.resolveToObject(c, handle);
-		processResource(resource);
+
+	private static void stopWorkers() {
+		if (dispatcher != null) {
+			dispatcher.shutdown();
+		}
 	}
 	
-	private static void processResource(DSpaceObject resource) throws SQLException, ItemProcessingException {
-		if (resource.getType() == Constants.COMMUNITY) {
-			processCommunity((Community) resource);
-		} else if (resource.getType() == Constants.COLLECTION) {
-			processCollection((Collection) resource);
-		} else if (resource.getType() == Constants.ITEM) {
-			processItem((Item) resource);
+	/**
+	 * Processes the handles specified on the command line followed by those in
+	 * the handles file, if any. Handles are resolved in batches. In SQL
+	 * enumeration mode, every community, collection and item beneath the
+	 * handles is resolved up front and the items are then processed in item ID
+	 * order.
+	 */
+	private static void traverseHandles(String[] handles, String handlesFile)
+			throws SQLException, IOException, ItemProcessingException {
+		long start = System.currentTimeMillis();
+		HandleResolver resolver = new HandleResolver(c);
+		ItemEnumerator enumerator = null;
+		if (isSqlEnumeration) {
+			enumerator = new ItemEnumerator(c);
+			enumerator.setShard(shard);
+			enumerator.setModifiedSince(modifiedSince);
+		}
+
+		List<String> batch = new ArrayList<String>(HandleResolver.BATCH_SIZE);
+		if (handles != null) {
+			for (String handle : handles) {
+				batch.add(handle);
+				if (batch.size() == HandleResolver.BATCH_SIZE) {
+					processHandles(resolver, batch, enumerator);
+				}
+			}
+		}
+
+		if (handlesFile != null) {
+			boolean isStdin = "-".equals(handlesFile);
+			BufferedReader reader = isStdin ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+					: Files.newBufferedReader(Paths.get(handlesFile), StandardCharsets.UTF_8);
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (line.length() == 0 || line.startsWith("#")) {
+						continue;
+					}
+					batch.add(line);
+					if (batch.size() == HandleResolver.BATCH_SIZE) {
+						processHandles(resolver, batch, enumerator);
+					}
+				}
+			} finally {
+				if (!isStdin) {
+					reader.close();
+				}
+			}
+		}
+		processHandles(resolver, batch, enumerator);
+
+		if (enumerator != null) {
+			processEnumerated(enumerator, start);
+		}
+		processUnverified();
+	}
+
+	/**
+	 * Resolves a batch of handles and processes, or in SQL enumeration mode
+	 * enumerates, the resources they refer to. The batch is cleared afterwards.
+	 */
+	private static void processHandles(HandleResolver resolver, List<String> batch, ItemEnumerator enumerator)
+			throws SQLException, IOException, ItemProcessingException {
+		for (HandleResolver.ResolvedHandle resolved : resolver.resolve(batch)) {
+			if (!resolved.isResolved()) {
+				print("Unable to resolve handle %s", resolved.getHandle());
+			} else if (enumerator != null) {
+				enumerator.add(resolved.getResourceType(), resolved.getResourceId());
+			} else {
+				processResource(resolved.getResourceType(), resolved.getResourceId());
+			}
+		}
+		batch.clear();
+	}
+
+	private static void processEnumerated(ItemEnumerator enumerator, long start)
+			throws SQLException, IOException, ItemProcessingException {
+		int[] itemIds = enumerator.enumerateItems();
+		stats.setExpectedCount(itemIds.length);
+		print("Enumerated %d items in %d communities and %d collections in %d ms.", itemIds.length,
+				enumerator.getCommunityIds().size(), enumerator.getCollectionIds().size(),
+				System.currentTimeMillis() - start);
+
+		if (shard == null || shard.isPrimary()) {
+			for (Integer communityId : enumerator.getCommunityIds()) {
+				itemProcessor.processCommunity(Community.find(c, communityId.intValue()));
+			}
+			for (Integer collectionId : enumerator.getCollectionIds()) {
+				itemProcessor.processCollection(Collection.find(c, collectionId.intValue()));
+			}
+			commitResourceChanges();
+		}
+		if (bulkProcessor != null) {
+			int[] batch = new int[bulkBatchSize > 0 ? bulkBatchSize : BULK_BATCH_SIZE];
+			int nBatched = 0;
+			for (int itemId : itemIds) {
+				if (!isSkipped(itemId)) {
+					batch[nBatched++] = itemId;
+					if (nBatched == batch.length) {
+						processBulk(batch, nBatched);
+						nBatched = 0;
+					}
+				}
+			}
+			processBulk(batch, nBatched);
+			return;
+		}
+		for (int itemId : itemIds) {
+			processItem(itemId);
 		}
 	}
 
-	private static void processCommunity(Community community) throws SQLException, ItemProcessingException {
-		itemProcessor.processCommunity(community);
+	private static void processResource(int resourceType, int resourceId)
+			throws SQLException, IOException, ItemProcessingException {
+		if (resourceType == Constants.COMMUNITY) {
+			Community community = Community.find(c, resourceId);
+			if (community != null) {
+				processCommunity(community);
+			}
+		} else if (resourceType == Constants.COLLECTION) {
+			Collection collection = Collection.find(c, resourceId);
+			if (collection != null) {
+				processCollection(collection);
+			}
+		} else if (resourceType == Constants.ITEM) {
+			processItem(resourceId);
+		}
+	}
+
+	private static void processCommunity(Community community)
+			throws SQLException, IOException, ItemProcessingException {
+		if (shard == null || shard.isPrimary()) {
+			itemProcessor.processCommunity(community);
+			commitResourceChanges();
+		}
 		for (Community comm : community.getSubcommunities()) {
 			processCommunity(comm);
 		}
@@ -153,22 +661,177 @@ public class ResourceTraverser {
 		}
 	}
 	
-	private static void processCollection(Collection coll) throws SQLException, ItemProcessingException {
-		itemProcessor.processCollection(coll);
+	private static void processCollection(Collection coll) throws SQLException, IOException, ItemProcessingException {
+		if (shard == null || shard.isPrimary()) {
+			itemProcessor.processCollection(coll);
+			commitResourceChanges();
+		}
 		ItemIterator iterator = coll.getItems();
-		while (iterator.hasNext()) {
-			processItem(iterator.next());
+		try {
+			if (bulkProcessor != null) {
+				int[] itemIds = new int[64];
+				int nItems = 0;
+				while (iterator.hasNext()) {
+					int itemId = iterator.nextID();
+					if (!isSkipped(itemId)) {
+						if (nItems == itemIds.length) {
+							itemIds = Arrays.copyOf(itemIds, nItems * 2);
+						}
+						itemIds[nItems++] = itemId;
+					}
+				}
+				processBulk(itemIds, nItems);
+				return;
+			}
+			while (iterator.hasNext()) {
+				// avoid loading items that are processed elsewhere or skipped
+				if (dispatcher != null || config.isResume() || shard != null || config.getFingerprints() != null) {
+					processItem(iterator.nextID());
+				} else {
+					processItem(iterator.next());
+				}
+			}
+		} finally {
+			iterator.close();
 		}
 	}
 	
-	private static void processItem(Item item) {
+	private static void processItem(int itemId) throws SQLException, IOException, ItemProcessingException {
+		if (isSkipped(itemId)) {
+			return;
+		}
+		if (bulkProcessor != null) {
+			processBulk(new int[] { itemId }, 1);
+		} else if (config.getFingerprints() != null) {
+			unverifiedIds[nUnverified++] = itemId;
+			if (nUnverified == FINGERPRINT_BATCH_SIZE) {
+				processUnverified();
+			}
+		} else {
+			dispatchItem(itemId);
+		}
+	}
+
+	private static void dispatchItem(int itemId) throws SQLException, IOException, ItemProcessingException {
+		if (dispatcher != null) {
+			dispatcher.submit(itemId);
+		} else {
+			itemWorker.processItem(itemId);
+		}
+	}
+
+	/**
+	 * Fingerprints the items waiting to be checked and processes those whose
+	 * fingerprint differs from the one recorded when they were last processed.
+	 */
+	private static void processUnverified() throws SQLException, IOException, ItemProcessingException {
+		if (nUnverified == 0) {
+			return;
+		}
+		long[] fingerprints = new ItemFingerprinter(c).fingerprint(unverifiedIds, nUnverified);
+		for (int i = 0; i < nUnverified; i++) {
+			if (fingerprints[i] != 0L && fingerprints[i] == config.getFingerprints().get(unverifiedIds[i])) {
+				stats.recordUnchanged();
+			} else {
+				dispatchItem(unverifiedIds[i]);
+			}
+		}
+		nUnverified = 0;
+	}
+
+	private static void processItem(Item item) throws SQLException, IOException, ItemProcessingException {
+		if (isSkipped(item.getID())) {
+			return;
+		}
+		if (dispatcher != null) {
+			dispatcher.submit(item.getID());
+		} else {
+			itemWorker.processItem(item);
+		}
+	}
+
+	/**
+	 * In bulk mode, commits the changes made by processCommunity or
+	 * processCollection on their own, so that they aren't rolled back if
+	 * rewriting the items that follow fails.
+	 */
+	private static void commitResourceChanges() throws SQLException {
+		if (bulkProcessor != null) {
+			LookupCache.commit(c);
+		}
+	}
+
+	/**
+	 * Rewrites items using the bulk processor and commits them in a single
+	 * transaction, or in transactions of --bulk-batch items. If the processor
+	 * fails, the transaction is rolled back and all the items in it are
+	 * counted as errors. As the bulk processor changes the database directly,
+	 * the Context's object cache is cleared after each transaction so that
+	 * objects cached before it aren't used afterwards.
+	 */
+	private static void processBulk(int[] itemIds, int nItems) throws SQLException, IOException {
+		if (bulkBatchSize > 0 && nItems > bulkBatchSize) {
+			for (int from = 0; from < nItems; from += bulkBatchSize) {
+				int to = Math.min(nItems, from + bulkBatchSize);
+				processBulkBatch(Arrays.copyOfRange(itemIds, from, to), to - from);
+			}
+		} else {
+			processBulkBatch(itemIds, nItems);
+		}
+	}
+
+	private static void processBulkBatch(int[] itemIds, int nItems) throws SQLException, IOException {
+		if (nItems == 0) {
+			return;
+		}
+		int[] ids = nItems == itemIds.length ? itemIds : Arrays.copyOf(itemIds, nItems);
+		long start = System.nanoTime();
 		try {
-			itemProcessor.processItem(item);
-			nSuccess++;
+			Set<Integer> skippedIds = bulkProcessor.processItemIds(ids);
+			LookupCache.commit(c);
+			LookupCache.clearCache(c);
+			int[] processedIds = new int[nItems];
+			int nProcessed = 0;
+			for (int id : ids) {
+				if (skippedIds.contains(id)) {
+					stats.recordBulkSkipped();
+				} else {
+					stats.recordSuccess();
+					processedIds[nProcessed++] = id;
+				}
+			}
+			if (config.getJournal() != null) {
+				config.getJournal().markProcessed(processedIds, nProcessed);
+			}
 		} catch (ItemProcessingException e) {
-			nError++;
-			e.getCause().printStackTrace();
+			LookupCache.rollback(c);
+			for (int i = 0; i < nItems; i++) {
+				stats.recordError();
+			}
+			TraversalOutput.printStackTrace(e.getCause() != null ? e.getCause() : e);
+		}
+		long latencyPerItem = (System.nanoTime() - start) / nItems;
+		for (int i = 0; i < nItems; i++) {
+			stats.recordItemLatency(latencyPerItem);
+		}
+	}
+
+	private static boolean isSkipped(int itemId) {
+		if (shard != null && !shard.contains(itemId)) {
+			stats.recordOtherShard();
+			return true;
+		}
+		if (visitedItems.get(itemId)) {
+			stats.recordDuplicate();
+			return true;
+		}
+		visitedItems.set(itemId);
+
+		if (config.isResume() && config.getJournal().isProcessed(itemId)) {
+			stats.recordResumed();
+			return true;
 		}
+		return false;
 	}
 
 }
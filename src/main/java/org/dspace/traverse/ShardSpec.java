@@ -0,0 +1,64 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+/**
+ * Identifies one of n shards of a traversal. An item belongs to shard i if
+ * item_id mod n equals i, so separate processes given the same handles and
+ * different shard numbers never process the same item.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class ShardSpec {
+
+	private final int shard;
+	private final int nShards;
+
+	public ShardSpec(int shard, int nShards) {
+		if (nShards < 1 || shard < 0 || shard >= nShards) {
+			throw new IllegalArgumentException(String.format("Invalid shard %d/%d", shard, nShards));
+		}
+		this.shard = shard;
+		this.nShards = nShards;
+	}
+
+	/**
+	 * Parses a shard specification in the form i/n where 0 &lt;= i &lt; n.
+	 */
+	public static ShardSpec parse(String spec) throws IllegalArgumentException {
+		String[] parts = spec.split("/");
+		if (parts.length != 2) {
+			throw new IllegalArgumentException(String.format("Invalid shard: %s. Expected i/n", spec));
+		}
+		return new ShardSpec(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+	}
+
+	public int getShard() {
+		return shard;
+	}
+
+	public int getShardCount() {
+		return nShards;
+	}
+
+	public boolean contains(int itemId) {
+		return itemId % nShards == shard;
+	}
+
+	/**
+	 * Communities and collections are only processed by the first shard so that
+	 * their policies aren't updated by several processes at once.
+	 * 
+	 * @return true if this is shard 0
+	 */
+	public boolean isPrimary() {
+		return shard == 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d/%d", shard, nShards);
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * SQL helpers shared by the tools that query the DSpace tables directly:
+ * IN lists split into chunks that every database accepts, and the names of
+ * the fields in the metadata registry.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public final class SqlUtil {
+
+	/**
+	 * Maximum number of values in a single IN (...) clause. Oracle allows at
+	 * most 1000.
+	 */
+	public static final int MAX_IN_LIST = 1000;
+
+	private SqlUtil() {
+	}
+
+	/**
+	 * Returns a parenthesised list of n bind placeholders for an IN clause.
+	 */
+	public static String placeholders(int n) {
+		StringBuilder sb = new StringBuilder(n * 2 + 1);
+		sb.append('(');
+		for (int i = 0; i < n; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append('?');
+		}
+		sb.append(')');
+		return sb.toString();
+	}
+
+	/**
+	 * Splits IDs into consecutive chunks of at most {@link #MAX_IN_LIST}. The
+	 * chunks are views of the list.
+	 */
+	public static List<List<Integer>> chunks(List<Integer> ids) {
+		List<List<Integer>> chunks = new ArrayList<List<Integer>>();
+		for (int from = 0; from < ids.size(); from += MAX_IN_LIST) {
+			chunks.add(ids.subList(from, Math.min(ids.size(), from + MAX_IN_LIST)));
+		}
+		return chunks;
+	}
+
+	/**
+	 * Runs a query once for each chunk of IDs, substituting the IN list for %s.
+	 * The IDs are bound after params.
+	 */
+	public static List<TableRow> queryIn(Context c, String query, List<Object> params, List<Integer> ids)
+			throws SQLException {
+		List<TableRow> rows = new ArrayList<TableRow>();
+		for (List<Integer> chunk : chunks(ids)) {
+			List<Object> chunkParams = new ArrayList<Object>(params);
+			chunkParams.addAll(chunk);
+			TableRowIterator iterator = DatabaseManager.query(c, String.format(query, placeholders(chunk.size())),
+					chunkParams.toArray());
+			try {
+				while (iterator.hasNext()) {
+					rows.add(iterator.next());
+				}
+			} finally {
+				iterator.close();
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Runs a statement once for each chunk of IDs, substituting the IN list for
+	 * %s. The IDs are bound after params.
+	 * 
+	 * @return the total number of rows changed
+	 */
+	public static int updateIn(Context c, String statement, List<Object> params, List<Integer> ids)
+			throws SQLException {
+		int nRows = 0;
+		for (List<Integer> chunk : chunks(ids)) {
+			List<Object> chunkParams = new ArrayList<Object>(params);
+			chunkParams.addAll(chunk);
+			nRows += DatabaseManager.updateQuery(c, String.format(statement, placeholders(chunk.size())),
+					chunkParams.toArray());
+		}
+		return nRows;
+	}
+
+	/**
+	 * Returns the schema.element.qualifier name of every field in the metadata
+	 * registry, by metadata_field_id.
+	 */
+	public static Map<Integer, String> getFieldNames(Context c) throws SQLException {
+		Map<Integer, String> fieldNames = new HashMap<Integer, String>();
+		TableRowIterator iterator = DatabaseManager.query(c,
+				"SELECT metadatafieldregistry.metadata_field_id, metadataschemaregistry.short_id,"
+						+ " metadatafieldregistry.element, metadatafieldregistry.qualifier"
+						+ " FROM metadatafieldregistry, metadataschemaregistry"
+						+ " WHERE metadatafieldregistry.metadata_schema_id = metadataschemaregistry.metadata_schema_id");
+		try {
+			while (iterator.hasNext()) {
+				TableRow row = iterator.next();
+				String qualifier = row.getStringColumn("qualifier");
+				fieldNames.put(row.getIntColumn("metadata_field_id"), row.getStringColumn("short_id") + "."
+						+ row.getStringColumn("element") + (qualifier != null ? "." + qualifier : ""));
+			}
+		} finally {
+			iterator.close();
+		}
+		return fieldNames;
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import org.dspace.core.Context;
+
+/**
+ * Settings that apply to every ItemWorker of a traversal, whether it runs on
+ * the main thread or in the worker pool.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class TraversalConfig {
+
+	private int commitEvery = 0;
+	private boolean isAdaptiveCommit = false;
+	private boolean isTimeCommits = false;
+	private int cacheLimit = 0;
+	private CheckpointJournal journal = null;
+	private boolean isResume = false;
+	private FingerprintStore fingerprints = null;
+	private ChangePlan changePlan = null;
+
+	/**
+	 * @return number of items after which a worker's Context is committed, or 0
+	 *         to commit only when the traversal finishes
+	 */
+	public int getCommitEvery() {
+		return commitEvery;
+	}
+
+	public void setCommitEvery(int commitEvery) {
+		this.commitEvery = commitEvery;
+	}
+
+	public boolean isAdaptiveCommit() {
+		return isAdaptiveCommit;
+	}
+
+	public void setAdaptiveCommit(boolean isAdaptiveCommit) {
+		this.isAdaptiveCommit = isAdaptiveCommit;
+	}
+
+	public boolean isTimeCommits() {
+		return isTimeCommits;
+	}
+
+	public void setTimeCommits(boolean isTimeCommits) {
+		this.isTimeCommits = isTimeCommits;
+	}
+
+	/**
+	 * @return number of objects in a Context's cache above which the whole
+	 *         cache is cleared, or 0 to only release each item once processed
+	 */
+	public int getCacheLimit() {
+		return cacheLimit;
+	}
+
+	public void setCacheLimit(int cacheLimit) {
+		this.cacheLimit = cacheLimit;
+	}
+
+	/**
+	 * @return journal in which committed items are recorded, or null
+	 */
+	public CheckpointJournal getJournal() {
+		return journal;
+	}
+
+	public void setJournal(CheckpointJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * @return true if items already recorded in the journal are to be skipped
+	 */
+	public boolean isResume() {
+		return isResume;
+	}
+
+	public void setResume(boolean isResume) {
+		this.isResume = isResume;
+	}
+
+	/**
+	 * @return store in which the fingerprints of committed items are recorded,
+	 *         or null
+	 */
+	public FingerprintStore getFingerprints() {
+		return fingerprints;
+	}
+
+	public void setFingerprints(FingerprintStore fingerprints) {
+		this.fingerprints = fingerprints;
+	}
+
+	/**
+	 * @return plan in which the policy changes of a dry run are recorded, or
+	 *         null
+	 */
+	public ChangePlan getChangePlan() {
+		return changePlan;
+	}
+
+	public void setChangePlan(ChangePlan changePlan) {
+		this.changePlan = changePlan;
+	}
+
+	/**
+	 * Creates a committer for the specified Context if periodic commits have been
+	 * requested.
+	 * 
+	 * @return a BatchCommitter, or null if the Context is only committed at the end
+	 */
+	public BatchCommitter createCommitter(Context c, TraversalStats stats) {
+		if (commitEvery <= 0) {
+			return null;
+		}
+		return new BatchCommitter(c, commitEvery, isAdaptiveCommit, isTimeCommits, stats);
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Reports the progress of a traversal: throughput, item latency percentiles,
+ * error rate and, when the number of items is known in advance, the estimated
+ * time remaining. The figures are printed as a periodic status line and
+ * published as an MBean named {@value #OBJECT_NAME}.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class TraversalMonitor implements TraversalMonitorMBean {
+
+	public static final String OBJECT_NAME = "org.dspace.traverse:type=ResourceTraverser";
+
+	private final TraversalStats stats;
+
+	private ScheduledExecutorService scheduler;
+	private ObjectName objectName;
+
+	public TraversalMonitor(TraversalStats stats) {
+		this.stats = stats;
+	}
+
+	/**
+	 * Registers the MBean and starts printing a status line every
+	 * intervalSeconds seconds. A status line isn't printed if intervalSeconds is
+	 * 0.
+	 */
+	public void start(int intervalSeconds) {
+		try {
+			MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+			objectName = new ObjectName(OBJECT_NAME);
+			if (!mbeanServer.isRegistered(objectName)) {
+				mbeanServer.registerMBean(this, objectName);
+			} else {
+				objectName = null;
+			}
+		} catch (JMException e) {
+			TraversalOutput.printStackTrace(e);
+			objectName = null;
+		}
+
+		if (intervalSeconds > 0) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "traversal-monitor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			scheduler.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					TraversalOutput.print("%s", getStatus());
+				}
+			}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	public void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (JMException e) {
+				TraversalOutput.printStackTrace(e);
+			}
+		}
+	}
+
+	@Override
+	public int getItemsProcessed() {
+		return stats.getTotalCount();
+	}
+
+	@Override
+	public int getErrors() {
+		return stats.getErrorCount();
+	}
+
+	@Override
+	public int getItemsSkipped() {
+		return stats.getResumedCount() + stats.getDuplicateCount() + stats.getOtherShardCount()
+				+ stats.getUnchangedCount() + stats.getBulkSkippedCount();
+	}
+
+	@Override
+	public int getExpectedItems() {
+		return stats.getExpectedCount();
+	}
+
+	@Override
+	public long getElapsedSeconds() {
+		return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - stats.getStartMillis());
+	}
+
+	@Override
+	public double getItemsPerSecond() {
+		long elapsedMillis = System.currentTimeMillis() - stats.getStartMillis();
+		return elapsedMillis > 0 ? stats.getTotalCount() * 1000.0 / elapsedMillis : 0.0;
+	}
+
+	@Override
+	public double getErrorRate() {
+		int total = stats.getTotalCount();
+		return total > 0 ? (double) stats.getErrorCount() / total : 0.0;
+	}
+
+	@Override
+	public double getP50LatencyMillis() {
+		return stats.getItemLatencies().getPercentile(0.50) / 1000.0;
+	}
+
+	@Override
+	public double getP99LatencyMillis() {
+		return stats.getItemLatencies().getPercentile(0.99) / 1000.0;
+	}
+
+	@Override
+	public long getEstimatedSecondsRemaining() {
+		int expected = stats.getExpectedCount();
+		double itemsPerSecond = getItemsPerSecond();
+		if (expected < 0 || itemsPerSecond <= 0.0) {
+			return -1L;
+		}
+		int remaining = Math.max(0, expected - getItemsDone());
+		return (long) (remaining / itemsPerSecond);
+	}
+
+	@Override
+	public String getStatus() {
+		StringBuilder status = new StringBuilder();
+		int expected = stats.getExpectedCount();
+		if (expected >= 0) {
+			int done = getItemsDone();
+			status.append(String.format("Progress: %d/%d items (%.1f%%)", done, expected,
+					expected > 0 ? done * 100.0 / expected : 100.0));
+		} else {
+			status.append(String.format("Progress: %d items", stats.getTotalCount()));
+		}
+		status.append(String.format(", %.1f items/s, p50 %.1f ms, p99 %.1f ms, %d errors (%.2f%%)",
+				getItemsPerSecond(), getP50LatencyMillis(), getP99LatencyMillis(), stats.getErrorCount(),
+				getErrorRate() * 100.0));
+
+		long secondsRemaining = getEstimatedSecondsRemaining();
+		if (secondsRemaining >= 0) {
+			status.append(String.format(", ETA %dh %02dm %02ds", secondsRemaining / 3600,
+					(secondsRemaining % 3600) / 60, secondsRemaining % 60));
+		}
+		return status.toString();
+	}
+
+	/**
+	 * Returns the number of expected items that have been processed or
+	 * skipped. Duplicate visits aren't expected items, so they aren't counted.
+	 */
+	private int getItemsDone() {
+		return stats.getTotalCount() + stats.getResumedCount() + stats.getOtherShardCount()
+				+ stats.getUnchangedCount() + stats.getBulkSkippedCount();
+	}
+}
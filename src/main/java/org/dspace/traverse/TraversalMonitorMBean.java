@@ -0,0 +1,39 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+/**
+ * JMX view of a running traversal.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public interface TraversalMonitorMBean {
+
+	public int getItemsProcessed();
+
+	public int getErrors();
+
+	public int getItemsSkipped();
+
+	public int getExpectedItems();
+
+	public long getElapsedSeconds();
+
+	public double getItemsPerSecond();
+
+	public double getErrorRate();
+
+	public double getP50LatencyMillis();
+
+	public double getP99LatencyMillis();
+
+	/**
+	 * @return estimated seconds until all expected items have been processed,
+	 *         or -1 if the number of items isn't known
+	 */
+	public long getEstimatedSecondsRemaining();
+
+	public String getStatus();
+}
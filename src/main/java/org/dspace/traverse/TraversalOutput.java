@@ -0,0 +1,185 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Console output shared by the traverser and item processors. Lines are
+ * placed in a bounded buffer and formatted and written to standard output by a
+ * single background thread, so worker threads don't wait on console I/O or
+ * format strings. When the buffer is full, callers wait for space rather than
+ * losing output.
+ * <p>
+ * In summary-only mode, changes reported through
+ * {@link #change(String, String, String, Object...)} aren't printed. Instead
+ * the number of each kind of change is counted per collection and printed by
+ * {@link #printChangeSummary()}.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public final class TraversalOutput {
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final int WRITER_BUFFER_SIZE = 64 * 1024;
+
+	private static final BlockingQueue<Line> buffer = new ArrayBlockingQueue<Line>(BUFFER_SIZE);
+	private static final Map<String, Map<String, Integer>> changeCounts = new TreeMap<String, Map<String, Integer>>();
+
+	private static volatile boolean isSummaryOnly = false;
+	private static Thread writerThread = null;
+
+	private TraversalOutput() {
+	}
+
+	public static void setSummaryOnly(boolean summaryOnly) {
+		isSummaryOnly = summaryOnly;
+	}
+
+	public static boolean isSummaryOnly() {
+		return isSummaryOnly;
+	}
+
+	/**
+	 * Prints a line. Formatting is done on the output thread, so arguments
+	 * should be immutable.
+	 */
+	public static void print(String str, Object... varargs) {
+		enqueue(new Line(str, varargs, null));
+	}
+
+	/**
+	 * Prints the stack trace of an exception in order with the other output,
+	 * rather than straight to standard error.
+	 */
+	public static void printStackTrace(Throwable t) {
+		StringWriter trace = new StringWriter();
+		t.printStackTrace(new PrintWriter(trace));
+		enqueue(new Line(trace.toString().trim(), null, null));
+	}
+
+	/**
+	 * Prints a line describing a change, or counts it in summary-only mode.
+	 * 
+	 * @param collection
+	 *            collection the changed resource belongs to. Only used in
+	 *            summary-only mode
+	 * @param action
+	 *            kind of change, e.g. ADD, UPDATE or DELETE
+	 */
+	public static void change(String collection, String action, String str, Object... varargs) {
+		if (isSummaryOnly) {
+			synchronized (changeCounts) {
+				Map<String, Integer> counts = changeCounts.get(collection);
+				if (counts == null) {
+					counts = new TreeMap<String, Integer>();
+					changeCounts.put(collection, counts);
+				}
+				Integer count = counts.get(action);
+				counts.put(action, count == null ? 1 : count + 1);
+			}
+		} else {
+			print(str, varargs);
+		}
+	}
+
+	/**
+	 * Prints the number of changes of each kind per collection counted in
+	 * summary-only mode.
+	 */
+	public static void printChangeSummary() {
+		synchronized (changeCounts) {
+			for (Map.Entry<String, Map<String, Integer>> collection : changeCounts.entrySet()) {
+				StringBuilder line = new StringBuilder(collection.getKey()).append(':');
+				for (Map.Entry<String, Integer> count : collection.getValue().entrySet()) {
+					line.append(' ').append(count.getKey()).append('=').append(count.getValue());
+				}
+				print("%s", line.toString());
+			}
+		}
+	}
+
+	/**
+	 * Waits until everything printed so far has been written.
+	 */
+	public static void flush() {
+		CountDownLatch latch = new CountDownLatch(1);
+		enqueue(new Line(null, null, latch));
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void enqueue(Line line) {
+		ensureStarted();
+		try {
+			buffer.put(line);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static synchronized void ensureStarted() {
+		if (writerThread == null) {
+			writerThread = new Thread(new WriterRunnable(), "traversal-output");
+			writerThread.setDaemon(true);
+			writerThread.start();
+		}
+	}
+
+	private static class WriterRunnable implements Runnable {
+
+		@Override
+		public void run() {
+			Writer out = new BufferedWriter(new OutputStreamWriter(System.out), WRITER_BUFFER_SIZE);
+			try {
+				while (true) {
+					Line line = buffer.take();
+					try {
+						if (line.format != null) {
+							out.write(line.varargs != null ? String.format(line.format, line.varargs) : line.format);
+							out.write(System.lineSeparator());
+						}
+						if (line.flushed != null || buffer.isEmpty()) {
+							out.flush();
+						}
+					} catch (IOException | RuntimeException e) {
+						e.printStackTrace();
+					} finally {
+						if (line.flushed != null) {
+							line.flushed.countDown();
+						}
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static class Line {
+		private final String format;
+		private final Object[] varargs;
+		private final CountDownLatch flushed;
+
+		public Line(String format, Object[] varargs, CountDownLatch flushed) {
+			this.format = format;
+			this.varargs = varargs;
+			this.flushed = flushed;
+		}
+	}
+}
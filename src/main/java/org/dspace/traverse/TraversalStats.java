@@ -0,0 +1,220 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for a traversal. The counters are shared by all worker threads and
+ * can be updated concurrently.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class TraversalStats {
+
+	private final AtomicInteger nSuccess = new AtomicInteger();
+	private final AtomicInteger nError = new AtomicInteger();
+	private final AtomicInteger nResumed = new AtomicInteger();
+	private final AtomicInteger nDuplicates = new AtomicInteger();
+	private final AtomicInteger nOtherShard = new AtomicInteger();
+	private final AtomicInteger nUnchanged = new AtomicInteger();
+	private final AtomicInteger nBulkSkipped = new AtomicInteger();
+
+	private final AtomicInteger peakCacheSize = new AtomicInteger();
+	private final AtomicInteger nCacheClears = new AtomicInteger();
+	private final AtomicLong peakHeapUsed = new AtomicLong();
+
+	private final LatencyHistogram itemLatencies = new LatencyHistogram();
+	private volatile long startMillis = System.currentTimeMillis();
+	private volatile int expectedCount = -1;
+
+	private int nCommits = 0;
+	private long totalCommitNanos = 0L;
+	private long maxCommitNanos = 0L;
+
+	/**
+	 * Marks the start of item processing, from which throughput is calculated.
+	 */
+	public void start() {
+		startMillis = System.currentTimeMillis();
+	}
+
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	/**
+	 * @param expectedCount
+	 *            number of items the traversal is expected to visit, if known
+	 *            in advance
+	 */
+	public void setExpectedCount(int expectedCount) {
+		this.expectedCount = expectedCount;
+	}
+
+	/**
+	 * @return number of items the traversal is expected to visit, or -1 if not
+	 *         known
+	 */
+	public int getExpectedCount() {
+		return expectedCount;
+	}
+
+	/**
+	 * Records the time taken by the item processor(s) for a single item.
+	 */
+	public void recordItemLatency(long elapsedNanos) {
+		itemLatencies.record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+	}
+
+	public LatencyHistogram getItemLatencies() {
+		return itemLatencies;
+	}
+
+	public void recordSuccess() {
+		nSuccess.incrementAndGet();
+	}
+
+	public void recordError() {
+		nError.incrementAndGet();
+	}
+
+	/**
+	 * Records that items already counted as successes were rolled back before
+	 * they were committed.
+	 */
+	public void recordRolledBack(int nItems) {
+		nSuccess.addAndGet(-nItems);
+		nError.addAndGet(nItems);
+	}
+
+	public int getSuccessCount() {
+		return nSuccess.get();
+	}
+
+	public int getErrorCount() {
+		return nError.get();
+	}
+
+	/**
+	 * Records an item skipped because the checkpoint journal shows it was
+	 * processed by an earlier run.
+	 */
+	public void recordResumed() {
+		nResumed.incrementAndGet();
+	}
+
+	public int getResumedCount() {
+		return nResumed.get();
+	}
+
+	/**
+	 * Records an item skipped because it has already been visited during this
+	 * traversal, e.g. through another collection it's mapped to.
+	 */
+	public void recordDuplicate() {
+		nDuplicates.incrementAndGet();
+	}
+
+	public int getDuplicateCount() {
+		return nDuplicates.get();
+	}
+
+	/**
+	 * Records an item skipped because it belongs to another shard.
+	 */
+	public void recordOtherShard() {
+		nOtherShard.incrementAndGet();
+	}
+
+	public int getOtherShardCount() {
+		return nOtherShard.get();
+	}
+
+	/**
+	 * Records an item skipped because its fingerprint hasn't changed since it
+	 * was last processed successfully.
+	 */
+	public void recordUnchanged() {
+		nUnchanged.incrementAndGet();
+	}
+
+	public int getUnchangedCount() {
+		return nUnchanged.get();
+	}
+
+	/**
+	 * Records an item the bulk processor left unchanged because it can't be
+	 * processed in bulk.
+	 */
+	public void recordBulkSkipped() {
+		nBulkSkipped.incrementAndGet();
+	}
+
+	public int getBulkSkippedCount() {
+		return nBulkSkipped.get();
+	}
+
+	public int getTotalCount() {
+		return getSuccessCount() + getErrorCount();
+	}
+
+	/**
+	 * Records the size of a Context's object cache and the heap currently in use.
+	 */
+	public void recordMemoryUse(int cacheSize) {
+		int peak;
+		while (cacheSize > (peak = peakCacheSize.get())) {
+			if (peakCacheSize.compareAndSet(peak, cacheSize)) {
+				break;
+			}
+		}
+
+		Runtime runtime = Runtime.getRuntime();
+		long heapUsed = runtime.totalMemory() - runtime.freeMemory();
+		long peakHeap;
+		while (heapUsed > (peakHeap = peakHeapUsed.get())) {
+			if (peakHeapUsed.compareAndSet(peakHeap, heapUsed)) {
+				break;
+			}
+		}
+	}
+
+	public void recordCacheClear() {
+		nCacheClears.incrementAndGet();
+	}
+
+	public int getPeakCacheSize() {
+		return peakCacheSize.get();
+	}
+
+	public int getCacheClearCount() {
+		return nCacheClears.get();
+	}
+
+	public long getPeakHeapUsed() {
+		return peakHeapUsed.get();
+	}
+
+	public synchronized void recordCommit(long elapsedNanos) {
+		nCommits++;
+		totalCommitNanos += elapsedNanos;
+		maxCommitNanos = Math.max(maxCommitNanos, elapsedNanos);
+	}
+
+	public synchronized int getCommitCount() {
+		return nCommits;
+	}
+
+	public synchronized long getAverageCommitMillis() {
+		return nCommits > 0 ? TimeUnit.NANOSECONDS.toMillis(totalCommitNanos / nCommits) : 0L;
+	}
+
+	public synchronized long getMaxCommitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxCommitNanos);
+	}
+}
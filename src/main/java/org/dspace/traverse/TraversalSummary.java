@@ -0,0 +1,138 @@
+/**
+ * 
+ */
+package org.dspace.traverse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Counts from a single traversal, saved as a properties file so that the
+ * summaries of sharded traversals can be combined.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class TraversalSummary {
+
+	private String shard = "";
+	private long success = 0L;
+	private long errors = 0L;
+	private long resumed = 0L;
+	private long duplicates = 0L;
+	private long otherShard = 0L;
+	private long unchanged = 0L;
+	private long bulkSkipped = 0L;
+	private long elapsedMillis = 0L;
+
+	public TraversalSummary() {
+	}
+
+	public TraversalSummary(ShardSpec shardSpec, TraversalStats stats) {
+		this.shard = shardSpec != null ? shardSpec.toString() : "";
+		this.success = stats.getSuccessCount();
+		this.errors = stats.getErrorCount();
+		this.resumed = stats.getResumedCount();
+		this.duplicates = stats.getDuplicateCount();
+		this.otherShard = stats.getOtherShardCount();
+		this.unchanged = stats.getUnchangedCount();
+		this.bulkSkipped = stats.getBulkSkippedCount();
+		this.elapsedMillis = System.currentTimeMillis() - stats.getStartMillis();
+	}
+
+	public static TraversalSummary read(Path path) throws IOException {
+		Properties props = new Properties();
+		try (InputStream in = Files.newInputStream(path)) {
+			props.load(in);
+		}
+		TraversalSummary summary = new TraversalSummary();
+		summary.shard = props.getProperty("shard", "");
+		summary.success = Long.parseLong(props.getProperty("success", "0"));
+		summary.errors = Long.parseLong(props.getProperty("errors", "0"));
+		summary.resumed = Long.parseLong(props.getProperty("resumed", "0"));
+		summary.duplicates = Long.parseLong(props.getProperty("duplicates", "0"));
+		summary.otherShard = Long.parseLong(props.getProperty("otherShard", "0"));
+		summary.unchanged = Long.parseLong(props.getProperty("unchanged", "0"));
+		summary.bulkSkipped = Long.parseLong(props.getProperty("bulkSkipped", "0"));
+		summary.elapsedMillis = Long.parseLong(props.getProperty("elapsedMillis", "0"));
+		return summary;
+	}
+
+	public void write(Path path) throws IOException {
+		Properties props = new Properties();
+		props.setProperty("shard", shard);
+		props.setProperty("success", Long.toString(success));
+		props.setProperty("errors", Long.toString(errors));
+		props.setProperty("resumed", Long.toString(resumed));
+		props.setProperty("duplicates", Long.toString(duplicates));
+		props.setProperty("otherShard", Long.toString(otherShard));
+		props.setProperty("unchanged", Long.toString(unchanged));
+		props.setProperty("bulkSkipped", Long.toString(bulkSkipped));
+		props.setProperty("elapsedMillis", Long.toString(elapsedMillis));
+		try (OutputStream out = Files.newOutputStream(path)) {
+			props.store(out, "ResourceTraverser summary");
+		}
+	}
+
+	/**
+	 * Adds the counts of another summary to this one. The elapsed time of the
+	 * combined summary is that of the longest running shard.
+	 */
+	public void add(TraversalSummary other) {
+		success += other.success;
+		errors += other.errors;
+		resumed += other.resumed;
+		duplicates += other.duplicates;
+		otherShard += other.otherShard;
+		unchanged += other.unchanged;
+		bulkSkipped += other.bulkSkipped;
+		elapsedMillis = Math.max(elapsedMillis, other.elapsedMillis);
+	}
+
+	public String getShard() {
+		return shard;
+	}
+
+	public long getSuccess() {
+		return success;
+	}
+
+	public long getErrors() {
+		return errors;
+	}
+
+	public long getResumed() {
+		return resumed;
+	}
+
+	public long getDuplicates() {
+		return duplicates;
+	}
+
+	public long getOtherShard() {
+		return otherShard;
+	}
+
+	public long getUnchanged() {
+		return unchanged;
+	}
+
+	public long getBulkSkipped() {
+		return bulkSkipped;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d success, %d errors, %d total, %d resumed, %d duplicates, %d other shards,"
+				+ " %d unchanged, %d bulk skipped, %d s elapsed", success, errors, success + errors, resumed,
+				duplicates, otherShard, unchanged, bulkSkipped, elapsedMillis / 1000);
+	}
+}
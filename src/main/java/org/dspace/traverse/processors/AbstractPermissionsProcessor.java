@@ -1,6 +1,7 @@
 package org.dspace.traverse.processors;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.dspace.authorize.AuthorizeException;
@@ -13,6 +14,8 @@ import org.dspace.content.Item;
 import org.dspace.core.Constants;
 import org.dspace.eperson.Group;
 import org.dspace.traverse.AbstractItemProcessor;
+import org.dspace.traverse.ItemProcessingException;
+import org.dspace.traverse.PlanEntry;
 
 /**
  * 
@@ -21,18 +24,49 @@ import org.dspace.traverse.AbstractItemProcessor;
  *
  */
 public abstract class AbstractPermissionsProcessor extends AbstractItemProcessor {
+
+	// changes made by rewriteResourcePolicies in bulk mode
+	private boolean isRewritten = false;
+	private int nRewriteAdded = 0;
+	private int nRewriteUpdated = 0;
+	private int nRewriteDeleted = 0;
+
+	/**
+	 * Prints the number of policies added, updated and deleted in bulk mode.
+	 */
+	@Override
+	public void end() throws ItemProcessingException {
+		if (isRewritten) {
+			print("Bulk rewrite: %d ADD, %d UPDATE, %d DELETE.", nRewriteAdded, nRewriteUpdated, nRewriteDeleted);
+		}
+	}
 	protected void updateResourcePolicies(DSpaceObject resource, Group group) throws SQLException, AuthorizeException {
 		updateResourcePolicies(resource, group, Constants.READ);
 	}
 	
 	protected void updateResourcePolicies(DSpaceObject resource, Group group, int actionType) throws SQLException, AuthorizeException {
+		updateResourcePolicies(resource, group, actionType, null);
+	}
+
+	/**
+	 * Grants the group the action on the resource, using the resource's
+	 * policies from the snapshot if it contains them instead of querying for
+	 * them. The policies are considered in policy ID order. Changes are
+	 * applied to the snapshot as well, including in a dry run, so a resource
+	 * visited twice is only changed once.
+	 */
+	protected void updateResourcePolicies(DSpaceObject resource, Group group, int actionType, PolicySnapshot snapshot)
+			throws SQLException, AuthorizeException {
 		String resourcePath = generateResourcePath(resource);
-		List<ResourcePolicy> policies = AuthorizeManager.getPolicies(c, resource);
+		List<PolicySnapshot.Policy> policies = snapshot != null ? snapshot.getPolicies(resource) : null;
+		if (policies == null) {
+			policies = PolicySnapshot.fromResourcePolicies(AuthorizeManager.getPolicies(c, resource));
+		}
 
 		// check if anonymous group already has read access
 		boolean isPolicyUpdateRequired = true;
-		for (ResourcePolicy policy : policies) {
-			if (policy.getAction() == actionType && group.equals(policy.getGroup())) {
+		for (PolicySnapshot.Policy policy : policies) {
+			if (policy.getAction() == actionType && policy.getGroupId() == group.getID()) {
 				isPolicyUpdateRequired = false;
 				break;
 			}
@@ -42,48 +76,100 @@ public abstract class AbstractPermissionsProcessor extends AbstractItemProcessor
 		if (isPolicyUpdateRequired) {
 			// count number of read policies
 			int nReadPolicies = 0;
-			for (ResourcePolicy policy : policies) {
+			for (PolicySnapshot.Policy policy : policies) {
 				if (policy.getAction() == actionType) {
 					nReadPolicies++;
 				}
 			}
 
 			if (nReadPolicies == 0) {
+				ResourcePolicy addedPolicy = null;
 				if (!isDryRun) {
-					AuthorizeManager.addPolicy(c, resource, actionType, group);
+					addedPolicy = addPolicy(resource, actionType, group);
+				}
+				printChange(resource, "ADD", "%s ADD: %s", resourcePath, group.getName());
+				recordChange(PlanEntry.ADD, -1, resource, actionType, group.getID(), -1, -1, resourcePath);
+				if (snapshot != null) {
+					snapshot.recordAdded(resource, addedPolicy, actionType, group.getID(), group.getName());
 				}
-				print("%s ADD: %s", resourcePath, group.getName());
 			} else if (nReadPolicies >= 1) {
 				boolean isFirstPolicyUpdated = false;
-				for (int i = 0; i < policies.size(); i++) {
-					if (policies.get(i).getAction() == actionType) {
+				List<PolicySnapshot.Policy> deletedPolicies = new ArrayList<PolicySnapshot.Policy>();
+				for (PolicySnapshot.Policy snapshotPolicy : policies) {
+					if (snapshotPolicy.getAction() == actionType) {
 						if (!isFirstPolicyUpdated) {
 							// update the first read policy
-							String oldGroup = policies.get(i).getGroup() != null ? policies.get(i).getGroup().getName()
-									: policies.get(i).getEPerson().getName();
+							String oldGroup = snapshotPolicy.getHolderName(c);
 							if (!isDryRun) {
-								policies.get(i).setGroup(group);
-								policies.get(i).setEPerson(null);
-								policies.get(i).update();
+								ResourcePolicy policy = snapshotPolicy.getResourcePolicy(c);
+								policy.setGroup(group);
+								policy.setEPerson(null);
+								policy.update();
+							}
+							printChange(resource, "UPDATE", "%s UPDATE: %s -> %s", resourcePath, oldGroup,
+									group.getName());
+							recordChange(PlanEntry.UPDATE, snapshotPolicy.getPolicyId(), resource, actionType,
+									group.getID(), snapshotPolicy.getGroupId(), snapshotPolicy.getEPersonId(),
+									resourcePath);
+							if (snapshot != null) {
+								snapshot.recordUpdated(snapshotPolicy, group.getID(), group.getName());
 							}
-							print("%s UPDATE: %s -> %s", resourcePath, oldGroup, group.getName());
 							isFirstPolicyUpdated = true;
 						} else {
 							// delete read policies after the first
-							String oldGroup = policies.get(i).getGroup() != null ? policies.get(i).getGroup().getName()
-									: policies.get(i).getEPerson().getName();
+							String oldGroup = snapshotPolicy.getHolderName(c);
 							if (!isDryRun) {
-								policies.get(i).delete();
-								policies.get(i).update();
+								ResourcePolicy policy = snapshotPolicy.getResourcePolicy(c);
+								policy.delete();
+								policy.update();
 							}
-							print("%s DELETE: %s", resourcePath, oldGroup);
+							printChange(resource, "DELETE", "%s DELETE: %s", resourcePath, oldGroup);
+							recordChange(PlanEntry.DELETE, snapshotPolicy.getPolicyId(), resource, actionType, -1,
+									snapshotPolicy.getGroupId(), snapshotPolicy.getEPersonId(), resourcePath);
+							deletedPolicies.add(snapshotPolicy);
 						}
 					}
 				}
+				if (snapshot != null) {
+					for (PolicySnapshot.Policy deletedPolicy : deletedPolicies) {
+						snapshot.recordDeleted(resource, deletedPolicy);
+					}
+				}
 			}
 		}
 	}
 
+	/**
+	 * Adds a policy as AuthorizeManager.addPolicy does, but returns it, so that
+	 * the snapshot holds its ID and a later change to it finds it.
+	 */
+	private ResourcePolicy addPolicy(DSpaceObject resource, int actionType, Group group)
+			throws SQLException, AuthorizeException {
+		ResourcePolicy policy = ResourcePolicy.create(c);
+		policy.setResource(resource);
+		policy.setAction(actionType);
+		policy.setGroup(group);
+		policy.update();
+		resource.updateLastModified();
+		return policy;
+	}
+
+	/**
+	 * Grants the group READ access to the bundles with the specified names, and
+	 * their bitstreams, in many items at once using set-based SQL. The changes
+	 * are the same as calling updateResourcePolicies for each bundle and
+	 * bitstream; see BulkPolicyRewriter for how the output differs.
+	 */
+	protected void rewriteResourcePolicies(int[] itemIds, Group group, String... bundleNames) throws SQLException {
+		BulkPolicyRewriter rewriter = new BulkPolicyRewriter(c, isDryRun, changePlan, group, Constants.READ,
+				bundleNames);
+		rewriter.rewrite(itemIds);
+		isRewritten = true;
+		nRewriteAdded += rewriter.getAddedCount();
+		nRewriteUpdated += rewriter.getUpdatedCount();
+		nRewriteDeleted += rewriter.getDeletedCount();
+	}
+
 	protected String generateResourcePath(DSpaceObject resource) throws SQLException {
 		String path = null;
 		if (resource.getType() == Constants.ITEM) {
@@ -4,6 +4,10 @@
 package org.dspace.traverse.processors;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 
 import org.dspace.authorize.AuthorizeException;
 import org.dspace.authorize.ResourcePolicy;
@@ -12,29 +16,44 @@ import org.dspace.content.Bundle;
 import org.dspace.content.Collection;
 import org.dspace.content.Item;
 import org.dspace.core.Constants;
+import org.dspace.dsrun.LookupCache;
 import org.dspace.eperson.Group;
+import org.dspace.traverse.BulkItemProcessor;
 import org.dspace.traverse.ItemProcessingException;
 
 /**
  * @author Genevieve Turner
  *
  */
-public class AnonymousReadOriginal extends AbstractPermissionsProcessor {
+public class AnonymousReadOriginal extends AbstractPermissionsProcessor implements BulkItemProcessor {
 	private static final String ANONYMOUS_GROUPNAME = "Anonymous";
 	
+	/**
+	 * Each instance only touches the item it is given, using its own Context.
+	 */
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
 	/**
 	 *  Set the items bitstream READ permission to Anonymous
 	 */
 	@Override
 	public void processItem(Item item) throws ItemProcessingException {
 		try {
-			Group anonymousGroup = Group.findByName(c, ANONYMOUS_GROUPNAME);
+			Group anonymousGroup = LookupCache.forContext(c).findGroupByName(ANONYMOUS_GROUPNAME);
+			List<Bundle> bundles = new ArrayList<Bundle>();
 			for (Bundle bundle : item.getBundles()) {
 				if (bundle.getName().equals("ORIGINAL")) {
-					updateResourcePolicies(bundle, anonymousGroup);
-					for (Bitstream bitstream : bundle.getBitstreams()) {
-						updateResourcePolicies(bitstream, anonymousGroup);
-					}
+					bundles.add(bundle);
+				}
+			}
+			PolicySnapshot policies = PolicySnapshot.load(c, bundles);
+			for (Bundle bundle : bundles) {
+				updateResourcePolicies(bundle, anonymousGroup, Constants.READ, policies);
+				for (Bitstream bitstream : bundle.getBitstreams()) {
+					updateResourcePolicies(bitstream, anonymousGroup, Constants.READ, policies);
 				}
 			}
 		} catch (SQLException e) {
@@ -44,13 +63,28 @@ public class AnonymousReadOriginal extends AbstractPermissionsProcessor {
 		}
 	}
 	
+	/**
+	 * Set the READ permission of the bitstreams in many items to Anonymous
+	 * without loading them
+	 */
+	@Override
+	public Set<Integer> processItemIds(int[] itemIds) throws ItemProcessingException {
+		try {
+			Group anonymousGroup = LookupCache.forContext(c).findGroupByName(ANONYMOUS_GROUPNAME);
+			rewriteResourcePolicies(itemIds, anonymousGroup, "ORIGINAL");
+			return Collections.emptySet();
+		} catch (SQLException e) {
+			throw new ItemProcessingException(e);
+		}
+	}
+
 	/**
 	 * Set the collections DEFAULT_BITSTREAM_READ policy to Aonnymous
 	 */
 	@Override
 	public void processCollection(Collection collection) throws ItemProcessingException {
 		try {
-			Group anonymousGroup = Group.findByName(c, ANONYMOUS_GROUPNAME);
+			Group anonymousGroup = LookupCache.forContext(c).findGroupByName(ANONYMOUS_GROUPNAME);
 			updateResourcePolicies(collection, anonymousGroup, Constants.DEFAULT_BITSTREAM_READ);
 		} catch (SQLException e) {
 			throw new ItemProcessingException(e);
@@ -0,0 +1,239 @@
+/**
+ * 
+ */
+package org.dspace.traverse.processors;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.dspace.content.Collection;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.traverse.SqlUtil;
+import org.dspace.traverse.TraversalOutput;
+
+/**
+ * Deletes many items at once with set-based SQL instead of removing them from
+ * their collections one at a time. The rows deleted are the ones Item.delete
+ * deletes: the items' metadata, policies, collection mappings and bundles, and
+ * the metadata and policies of bundles and bitstreams that belong to no other
+ * item. Handles are unbound rather than deleted.
+ * <p>
+ * Like Collection.removeItem, an item that is also mapped to other
+ * collections isn't deleted; it is only removed from its owning collection,
+ * and its owning collection becomes the remaining collection with the lowest
+ * ID.
+ * <p>
+ * Like Bitstream.delete, bitstreams are only marked deleted. Their files and
+ * rows are removed later by CleanupAssetStore, or by DSpace's own cleanup.
+ * <p>
+ * No events are fired, so the search and browse indexes still contain the
+ * deleted items until they are updated. Items that have versions are skipped
+ * because removing a version also changes the version history; they have to
+ * be deleted without --bulk. Their IDs are returned so they aren't counted as
+ * deleted.
+ * <p>
+ * Items are handled 1000 at a time. Nothing is committed; the caller commits
+ * after each batch.
+ *
+ * @author Rahul Khanna
+ *
+ */
+public class BulkItemDeleter {
+
+	private final Context c;
+	private final boolean isDryRun;
+
+	private final Map<Integer, Collection> collections = new HashMap<Integer, Collection>();
+
+	private final List<Integer> markedBitstreamIds = new ArrayList<Integer>();
+
+	private int nItems = 0;
+	private int nUnmapped = 0;
+	private int nBundles = 0;
+	private int nBitstreams = 0;
+	private int nSkipped = 0;
+
+	public BulkItemDeleter(Context c, boolean isDryRun) {
+		this.c = c;
+		this.isDryRun = isDryRun;
+	}
+
+	public int getItemCount() {
+		return nItems;
+	}
+
+	public int getUnmappedCount() {
+		return nUnmapped;
+	}
+
+	public int getBundleCount() {
+		return nBundles;
+	}
+
+	public int getBitstreamCount() {
+		return nBitstreams;
+	}
+
+	public int getSkippedCount() {
+		return nSkipped;
+	}
+
+	/**
+	 * Returns the IDs of the bitstreams marked deleted by the last call to
+	 * delete.
+	 */
+	public List<Integer> getMarkedBitstreamIds() {
+		return markedBitstreamIds;
+	}
+
+	/**
+	 * Deletes the items with the specified IDs.
+	 * 
+	 * @return the IDs of the items skipped because they have versions
+	 */
+	public Set<Integer> delete(int[] itemIds) throws SQLException {
+		markedBitstreamIds.clear();
+		Set<Integer> skippedIds = new HashSet<Integer>();
+		for (int from = 0; from < itemIds.length; from += SqlUtil.MAX_IN_LIST) {
+			int to = Math.min(itemIds.length, from + SqlUtil.MAX_IN_LIST);
+			List<Integer> chunk = new ArrayList<Integer>(to - from);
+			for (int i = from; i < to; i++) {
+				chunk.add(itemIds[i]);
+			}
+			deleteChunk(chunk, skippedIds);
+		}
+		return skippedIds;
+	}
+
+	private void deleteChunk(List<Integer> chunk, Set<Integer> skippedIds) throws SQLException {
+		Set<Integer> versioned = new HashSet<Integer>();
+		for (TableRow row : SqlUtil.queryIn(c, "SELECT DISTINCT item_id FROM versionitem WHERE item_id IN %s",
+				new ArrayList<Object>(), chunk)) {
+			versioned.add(row.getIntColumn("item_id"));
+		}
+		// items also mapped to a collection other than their owning collection
+		Set<Integer> mapped = new HashSet<Integer>();
+		for (TableRow row : SqlUtil.queryIn(c, "SELECT DISTINCT collection2item.item_id FROM collection2item, item"
+				+ " WHERE item.item_id = collection2item.item_id"
+				+ " AND collection2item.collection_id <> item.owning_collection AND collection2item.item_id IN %s",
+				new ArrayList<Object>(), chunk)) {
+			mapped.add(row.getIntColumn("item_id"));
+		}
+
+		List<Integer> unmappedIds = new ArrayList<Integer>();
+		List<Integer> itemIds = new ArrayList<Integer>(chunk.size());
+		for (TableRow row : SqlUtil.queryIn(c, "SELECT item.item_id, item.owning_collection, handle.handle FROM item"
+				+ " LEFT JOIN handle ON handle.resource_type_id = ? AND handle.resource_id = item.item_id"
+				+ " WHERE item.item_id IN %s ORDER BY item.item_id", Arrays.<Object> asList(Constants.ITEM), chunk)) {
+			int itemId = row.getIntColumn("item_id");
+			String itemHandle = row.getStringColumn("handle");
+			if (versioned.contains(itemId)) {
+				nSkipped++;
+				skippedIds.add(itemId);
+				TraversalOutput.print("Skipping %s(%d) as it has versions. Delete it without --bulk.", itemHandle,
+						itemId);
+				continue;
+			}
+			Collection owningCollection = row.isColumnNull("owning_collection") ? null
+					: getCollection(row.getIntColumn("owning_collection"));
+			if (owningCollection != null) {
+				TraversalOutput.change(owningCollection.getHandle(), "DELETE", "DELETE %s (owner %s;%s)", itemHandle,
+						owningCollection.getName(), owningCollection.getHandle());
+			} else {
+				TraversalOutput.change("(no collection)", "DELETE", "DELETE %s (owner none)", itemHandle);
+			}
+			if (mapped.contains(itemId)) {
+				unmappedIds.add(itemId);
+			} else {
+				itemIds.add(itemId);
+			}
+		}
+		nItems += itemIds.size();
+		nUnmapped += unmappedIds.size();
+		if (isDryRun) {
+			return;
+		}
+
+		SqlUtil.updateIn(c, "DELETE FROM collection2item WHERE item_id IN %s AND collection_id ="
+				+ " (SELECT owning_collection FROM item WHERE item.item_id = collection2item.item_id)",
+				new ArrayList<Object>(), unmappedIds);
+		SqlUtil.updateIn(c, "UPDATE item SET owning_collection = (SELECT MIN(collection_id) FROM collection2item"
+				+ " WHERE collection2item.item_id = item.item_id) WHERE item_id IN %s", new ArrayList<Object>(),
+				unmappedIds);
+		if (itemIds.isEmpty()) {
+			return;
+		}
+
+		// bundles that belong to no other item once the items are removed
+		List<Integer> bundleIds = selectIds("bundle_id",
+				"SELECT DISTINCT bundle_id FROM item2bundle WHERE item_id IN %s", itemIds);
+		SqlUtil.updateIn(c, "DELETE FROM item2bundle WHERE item_id IN %s", new ArrayList<Object>(), itemIds);
+		bundleIds = selectIds("bundle_id", "SELECT bundle_id FROM bundle WHERE bundle_id IN %s"
+				+ " AND NOT EXISTS (SELECT 1 FROM item2bundle WHERE item2bundle.bundle_id = bundle.bundle_id)",
+				bundleIds);
+
+		// bitstreams that belong to no other bundle once the bundles are removed
+		List<Integer> bitstreamIds = selectIds("bitstream_id",
+				"SELECT DISTINCT bitstream_id FROM bundle2bitstream WHERE bundle_id IN %s", bundleIds);
+		SqlUtil.updateIn(c, "DELETE FROM bundle2bitstream WHERE bundle_id IN %s", new ArrayList<Object>(), bundleIds);
+		bitstreamIds = selectIds("bitstream_id", "SELECT bitstream_id FROM bitstream WHERE bitstream_id IN %s"
+				+ " AND NOT EXISTS (SELECT 1 FROM bundle2bitstream"
+				+ " WHERE bundle2bitstream.bitstream_id = bitstream.bitstream_id)", bitstreamIds);
+
+		deleteDependents(Constants.BITSTREAM, bitstreamIds);
+		SqlUtil.updateIn(c, "UPDATE bitstream SET deleted = '1' WHERE bitstream_id IN %s", new ArrayList<Object>(),
+				bitstreamIds);
+
+		deleteDependents(Constants.BUNDLE, bundleIds);
+		SqlUtil.updateIn(c, "DELETE FROM bundle WHERE bundle_id IN %s", new ArrayList<Object>(), bundleIds);
+
+		deleteDependents(Constants.ITEM, itemIds);
+		SqlUtil.updateIn(c, "DELETE FROM collection2item WHERE item_id IN %s", new ArrayList<Object>(), itemIds);
+		SqlUtil.updateIn(c, "DELETE FROM harvested_item WHERE item_id IN %s", new ArrayList<Object>(), itemIds);
+		SqlUtil.updateIn(c, "DELETE FROM requestitem WHERE item_id IN %s", new ArrayList<Object>(), itemIds);
+		SqlUtil.updateIn(c, "UPDATE handle SET resource_id = NULL WHERE resource_type_id = ? AND resource_id IN %s",
+				Arrays.<Object> asList(Constants.ITEM), itemIds);
+		SqlUtil.updateIn(c, "DELETE FROM item WHERE item_id IN %s", new ArrayList<Object>(), itemIds);
+
+		nBundles += bundleIds.size();
+		nBitstreams += bitstreamIds.size();
+		markedBitstreamIds.addAll(bitstreamIds);
+	}
+
+	/**
+	 * Deletes the policies and metadata of the resources.
+	 */
+	private void deleteDependents(int resourceType, List<Integer> ids) throws SQLException {
+		SqlUtil.updateIn(c, "DELETE FROM resourcepolicy WHERE resource_type_id = ? AND resource_id IN %s",
+				Arrays.<Object> asList(resourceType), ids);
+		SqlUtil.updateIn(c, "DELETE FROM metadatavalue WHERE resource_type_id = ? AND resource_id IN %s",
+				Arrays.<Object> asList(resourceType), ids);
+	}
+
+	private Collection getCollection(int collectionId) throws SQLException {
+		Collection collection = collections.get(collectionId);
+		if (collection == null && !collections.containsKey(collectionId)) {
+			collection = Collection.find(c, collectionId);
+			collections.put(collectionId, collection);
+		}
+		return collection;
+	}
+
+	private List<Integer> selectIds(String column, String query, List<Integer> ids) throws SQLException {
+		List<Integer> selected = new ArrayList<Integer>();
+		for (TableRow row : SqlUtil.queryIn(c, query, new ArrayList<Object>(), ids)) {
+			selected.add(row.getIntColumn(column));
+		}
+		return selected;
+	}
+
+
+}
@@ -0,0 +1,386 @@
+/**
+ * 
+ */
+package org.dspace.traverse.processors;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.eperson.Group;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.traverse.ChangePlan;
+import org.dspace.traverse.PlanEntry;
+import org.dspace.traverse.SqlUtil;
+import org.dspace.traverse.TraversalOutput;
+
+/**
+ * Grants a group a policy on the bundles with the specified names, and their
+ * bitstreams, for many items at once without loading any DSpace objects. The
+ * changes are the same as AbstractPermissionsProcessor.updateResourcePolicies
+ * makes one resource at a time: a policy is added if the resource has no
+ * policy for the action, otherwise the first is pointed at the group and the
+ * rest are deleted. Resources that already grant the action to the group are
+ * left alone.
+ * <p>
+ * Items are handled 1000 at a time. For each batch the handles, bundles,
+ * bitstreams and existing policies are read with one query each, the changes
+ * are printed in the same form as the per-object path, and then applied with
+ * one INSERT, UPDATE and DELETE per resource type. Nothing is committed; the
+ * caller commits once the whole collection or community has been rewritten.
+ * <p>
+ * The changes are written with SQL, bypassing the DSpace API: no events are
+ * generated for them, so the search index isn't updated, and DSpace objects
+ * already cached by the Context aren't updated either. The caller clears the
+ * Context's cache once the changes are committed.
+ * <p>
+ * The output differs from the per-object path in two ways:
+ * <ul>
+ * <li>Bitstream paths use the bundle being processed, whereas the per-object
+ * path uses the first bundle the bitstream belongs to.</li>
+ * <li>A bitstream in more than one of the selected bundles is only changed and
+ * printed once. The per-object path only does the same when it is given a
+ * PolicySnapshot of the item; otherwise, in a dry run, it prints the
+ * bitstream's changes once for each bundle.</li>
+ * </ul>
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class BulkPolicyRewriter {
+
+	private final Context c;
+	private final boolean isDryRun;
+	private final ChangePlan changePlan;
+	private final Group group;
+	private final int actionType;
+	private final Set<String> bundleNames;
+
+	private int titleFieldId = -1;
+	private final Map<Integer, String> collectionHandles = new HashMap<Integer, String>();
+
+	private int nAdded = 0;
+	private int nUpdated = 0;
+	private int nDeleted = 0;
+
+	/**
+	 * @param changePlan
+	 *            plan in which to record the changes, or null
+	 */
+	public BulkPolicyRewriter(Context c, boolean isDryRun, ChangePlan changePlan, Group group, int actionType,
+			String... bundleNames) {
+		this.c = c;
+		this.isDryRun = isDryRun;
+		this.changePlan = changePlan;
+		this.group = group;
+		this.actionType = actionType;
+		this.bundleNames = new HashSet<String>(Arrays.asList(bundleNames));
+	}
+
+	public int getAddedCount() {
+		return nAdded;
+	}
+
+	public int getUpdatedCount() {
+		return nUpdated;
+	}
+
+	public int getDeletedCount() {
+		return nDeleted;
+	}
+
+	/**
+	 * Rewrites the policies of the selected bundles, and their bitstreams, in
+	 * the specified items.
+	 */
+	public void rewrite(int[] itemIds) throws SQLException {
+		for (int from = 0; from < itemIds.length; from += SqlUtil.MAX_IN_LIST) {
+			int to = Math.min(itemIds.length, from + SqlUtil.MAX_IN_LIST);
+			List<Integer> chunk = new ArrayList<Integer>(to - from);
+			for (int i = from; i < to; i++) {
+				chunk.add(itemIds[i]);
+			}
+			rewriteChunk(chunk);
+		}
+	}
+
+	private void rewriteChunk(List<Integer> itemIds) throws SQLException {
+		Map<Integer, ItemInfo> items = loadItems(itemIds);
+		Map<Integer, Resource> bundles = loadBundles(items);
+		Map<Integer, Resource> bitstreams = loadBitstreams(bundles);
+		loadPolicies(Constants.BUNDLE, bundles);
+		loadPolicies(Constants.BITSTREAM, bitstreams);
+
+		Changes bundleChanges = new Changes();
+		Changes bitstreamChanges = new Changes();
+		Set<Integer> seenBitstreams = new HashSet<Integer>();
+		for (Integer itemId : itemIds) {
+			ItemInfo item = items.get(itemId);
+			if (item == null) {
+				continue;
+			}
+			for (Resource bundle : item.bundles) {
+				planChanges(bundle, item, bundleChanges);
+				for (Resource bitstream : bundle.children) {
+					if (seenBitstreams.add(bitstream.id)) {
+						planChanges(bitstream, item, bitstreamChanges);
+					}
+				}
+			}
+		}
+
+		if (!isDryRun) {
+			applyChanges(Constants.BUNDLE, "bundle", "bundle_id", bundleChanges);
+			applyChanges(Constants.BITSTREAM, "bitstream", "bitstream_id", bitstreamChanges);
+		}
+	}
+
+	/**
+	 * Decides what to change for a single resource, exactly as
+	 * updateResourcePolicies does, and prints and records each change.
+	 */
+	private void planChanges(Resource resource, ItemInfo item, Changes changes) {
+		for (Policy policy : resource.policies) {
+			if (policy.groupId == group.getID()) {
+				return;
+			}
+		}
+
+		if (resource.policies.isEmpty()) {
+			changes.addIds.add(resource.id);
+			nAdded++;
+			TraversalOutput.change(item.collectionHandle, "ADD", "%s ADD: %s", resource.path, group.getName());
+			record(PlanEntry.ADD, -1, resource, group.getID(), null);
+		} else {
+			for (int i = 0; i < resource.policies.size(); i++) {
+				Policy policy = resource.policies.get(i);
+				if (i == 0) {
+					changes.updateIds.add(policy.policyId);
+					nUpdated++;
+					TraversalOutput.change(item.collectionHandle, "UPDATE", "%s UPDATE: %s -> %s", resource.path,
+							policy.holderName, group.getName());
+					record(PlanEntry.UPDATE, policy.policyId, resource, group.getID(), policy);
+				} else {
+					changes.deleteIds.add(policy.policyId);
+					nDeleted++;
+					TraversalOutput.change(item.collectionHandle, "DELETE", "%s DELETE: %s", resource.path,
+							policy.holderName);
+					record(PlanEntry.DELETE, policy.policyId, resource, -1, policy);
+				}
+			}
+		}
+	}
+
+	private void record(String op, int policyId, Resource resource, int groupId, Policy oldPolicy) {
+		if (changePlan != null) {
+			changePlan.record(new PlanEntry(op, policyId, resource.type, resource.id, actionType, groupId,
+					oldPolicy != null ? oldPolicy.groupId : -1, oldPolicy != null ? oldPolicy.epersonId : -1,
+					resource.path));
+		}
+	}
+
+	private void applyChanges(int resourceType, String table, String idColumn, Changes changes)
+			throws SQLException {
+		String nextPolicyId = DatabaseManager.isOracle() ? "resourcepolicy_seq.nextval"
+				: "nextval('resourcepolicy_seq')";
+		SqlUtil.updateIn(c, "INSERT INTO resourcepolicy"
+				+ " (policy_id, resource_type_id, resource_id, action_id, epersongroup_id)"
+				+ " SELECT " + nextPolicyId + ", ?, " + idColumn + ", ?, ? FROM " + table
+				+ " WHERE " + idColumn + " IN %s",
+				Arrays.<Object> asList(resourceType, actionType, group.getID()), changes.addIds);
+		SqlUtil.updateIn(c, "UPDATE resourcepolicy SET epersongroup_id = ?, eperson_id = NULL WHERE policy_id IN %s",
+				Arrays.<Object> asList(group.getID()), changes.updateIds);
+		SqlUtil.updateIn(c, "DELETE FROM resourcepolicy WHERE policy_id IN %s", new ArrayList<Object>(),
+				changes.deleteIds);
+	}
+
+	private Map<Integer, ItemInfo> loadItems(List<Integer> itemIds) throws SQLException {
+		Map<Integer, ItemInfo> items = new HashMap<Integer, ItemInfo>();
+		Set<Integer> newCollectionIds = new HashSet<Integer>();
+		for (TableRow row : SqlUtil.queryIn(c, "SELECT item.item_id, item.owning_collection, handle.handle FROM item"
+				+ " LEFT JOIN handle ON handle.resource_type_id = ? AND handle.resource_id = item.item_id"
+				+ " WHERE item.item_id IN %s", Arrays.<Object> asList(Constants.ITEM), itemIds)) {
+			ItemInfo item = new ItemInfo();
+			item.id = row.getIntColumn("item_id");
+			item.handle = row.getStringColumn("handle");
+			item.collectionId = row.isColumnNull("owning_collection") ? -1 : row.getIntColumn("owning_collection");
+			if (item.collectionId != -1 && !collectionHandles.containsKey(item.collectionId)) {
+				newCollectionIds.add(item.collectionId);
+			}
+			items.put(item.id, item);
+		}
+
+		if (!newCollectionIds.isEmpty()) {
+			for (TableRow row : SqlUtil.queryIn(c, "SELECT resource_id, handle FROM handle"
+					+ " WHERE resource_type_id = ? AND resource_id IN %s", Arrays.<Object> asList(Constants.COLLECTION),
+					new ArrayList<Integer>(newCollectionIds))) {
+				collectionHandles.put(row.getIntColumn("resource_id"), row.getStringColumn("handle"));
+			}
+		}
+		for (ItemInfo item : items.values()) {
+			String collectionHandle = collectionHandles.get(item.collectionId);
+			item.collectionHandle = collectionHandle != null ? collectionHandle : "(no collection)";
+		}
+		return items;
+	}
+
+	/**
+	 * Loads the bundles of the items that have one of the selected names, in
+	 * bundle ID order within each item.
+	 */
+	private Map<Integer, Resource> loadBundles(Map<Integer, ItemInfo> items) throws SQLException {
+		Map<Integer, Resource> bundles = new LinkedHashMap<Integer, Resource>();
+		Map<Integer, String> names = new LinkedHashMap<Integer, String>();
+		Map<Integer, Integer> bundleItems = new HashMap<Integer, Integer>();
+		for (TableRow row : SqlUtil.queryIn(c, "SELECT item2bundle.item_id, item2bundle.bundle_id,"
+				+ " metadatavalue.text_value"
+				+ " FROM item2bundle LEFT JOIN metadatavalue ON metadatavalue.resource_type_id = ?"
+				+ " AND metadatavalue.resource_id = item2bundle.bundle_id AND metadatavalue.metadata_field_id = ?"
+				+ " WHERE item2bundle.item_id IN %s"
+				+ " ORDER BY item2bundle.item_id, item2bundle.bundle_id, metadatavalue.place",
+				Arrays.<Object> asList(Constants.BUNDLE, getTitleFieldId()), new ArrayList<Integer>(items.keySet()))) {
+			int bundleId = row.getIntColumn("bundle_id");
+			// a bundle's name is its first title
+			if (!names.containsKey(bundleId)) {
+				names.put(bundleId, row.getStringColumn("text_value"));
+				bundleItems.put(bundleId, row.getIntColumn("item_id"));
+			}
+		}
+
+		for (Map.Entry<Integer, String> name : names.entrySet()) {
+			if (name.getValue() != null && bundleNames.contains(name.getValue())) {
+				ItemInfo item = items.get(bundleItems.get(name.getKey()));
+				Resource bundle = new Resource(Constants.BUNDLE, name.getKey(), String.format("%s(%d) > %s(%d)",
+						item.handle, item.id, name.getValue(), name.getKey()));
+				item.bundles.add(bundle);
+				bundles.put(bundle.id, bundle);
+			}
+		}
+		return bundles;
+	}
+
+	/**
+	 * Loads the bitstreams of the bundles, in bitstream order within each
+	 * bundle.
+	 */
+	private Map<Integer, Resource> loadBitstreams(Map<Integer, Resource> bundles) throws SQLException {
+		Map<Integer, Resource> bitstreams = new LinkedHashMap<Integer, Resource>();
+		if (bundles.isEmpty()) {
+			return bitstreams;
+		}
+
+		Map<Integer, ItemInfo> bundleItems = new HashMap<Integer, ItemInfo>();
+		Set<String> seen = new HashSet<String>();
+		for (TableRow row : SqlUtil.queryIn(c, "SELECT bundle2bitstream.bundle_id, bundle2bitstream.bitstream_id,"
+				+ " metadatavalue.text_value FROM bundle2bitstream"
+				+ " LEFT JOIN metadatavalue ON metadatavalue.resource_type_id = ?"
+				+ " AND metadatavalue.resource_id = bundle2bitstream.bitstream_id"
+				+ " AND metadatavalue.metadata_field_id = ?"
+				+ " WHERE bundle2bitstream.bundle_id IN %s"
+				+ " ORDER BY bundle2bitstream.bundle_id, bundle2bitstream.bitstream_order,"
+				+ " bundle2bitstream.bitstream_id, metadatavalue.place",
+				Arrays.<Object> asList(Constants.BITSTREAM, getTitleFieldId()),
+				new ArrayList<Integer>(bundles.keySet()))) {
+			int bundleId = row.getIntColumn("bundle_id");
+			int bitstreamId = row.getIntColumn("bitstream_id");
+			// a bitstream's name is its first title
+			if (!seen.add(bundleId + "/" + bitstreamId)) {
+				continue;
+			}
+			Resource bundle = bundles.get(bundleId);
+			Resource bitstream = bitstreams.get(bitstreamId);
+			if (bitstream == null) {
+				bitstream = new Resource(Constants.BITSTREAM, bitstreamId,
+						bundle.path + String.format(" > %s(%d)", row.getStringColumn("text_value"), bitstreamId));
+				bitstreams.put(bitstreamId, bitstream);
+			}
+			bundle.children.add(bitstream);
+		}
+		return bitstreams;
+	}
+
+	/**
+	 * Loads the existing policies for the action on the resources, in policy ID
+	 * order, with the name of the group or e-person each is granted to.
+	 */
+	private void loadPolicies(int resourceType, Map<Integer, Resource> resources) throws SQLException {
+		if (resources.isEmpty()) {
+			return;
+		}
+		for (TableRow row : SqlUtil.queryIn(c, "SELECT resourcepolicy.policy_id, resourcepolicy.resource_id,"
+				+ " resourcepolicy.epersongroup_id, resourcepolicy.eperson_id, epersongroup.name AS group_name, eperson.email"
+				+ " FROM resourcepolicy"
+				+ " LEFT JOIN epersongroup ON epersongroup.eperson_group_id = resourcepolicy.epersongroup_id"
+				+ " LEFT JOIN eperson ON eperson.eperson_id = resourcepolicy.eperson_id"
+				+ " WHERE resourcepolicy.resource_type_id = ? AND resourcepolicy.action_id = ?"
+				+ " AND resourcepolicy.resource_id IN %s ORDER BY resourcepolicy.policy_id",
+				Arrays.<Object> asList(resourceType, actionType), new ArrayList<Integer>(resources.keySet()))) {
+			Policy policy = new Policy();
+			policy.policyId = row.getIntColumn("policy_id");
+			policy.groupId = row.isColumnNull("epersongroup_id") ? -1 : row.getIntColumn("epersongroup_id");
+			policy.epersonId = row.isColumnNull("eperson_id") ? -1 : row.getIntColumn("eperson_id");
+			policy.holderName = policy.groupId != -1 ? row.getStringColumn("group_name")
+					: row.getStringColumn("email");
+			resources.get(row.getIntColumn("resource_id")).policies.add(policy);
+		}
+	}
+
+	private int getTitleFieldId() throws SQLException {
+		if (titleFieldId == -1) {
+			TableRow row = DatabaseManager.querySingle(c,
+					"SELECT metadatafieldregistry.metadata_field_id FROM metadatafieldregistry, metadataschemaregistry"
+							+ " WHERE metadatafieldregistry.metadata_schema_id = metadataschemaregistry.metadata_schema_id"
+							+ " AND metadataschemaregistry.short_id = 'dc' AND metadatafieldregistry.element = 'title'"
+							+ " AND metadatafieldregistry.qualifier IS NULL");
+			if (row == null) {
+				throw new SQLException("Metadata field dc.title not found");
+			}
+			titleFieldId = row.getIntColumn("metadata_field_id");
+		}
+		return titleFieldId;
+	}
+
+	private static class ItemInfo {
+		private int id;
+		private String handle;
+		private int collectionId;
+		private String collectionHandle;
+		private final List<Resource> bundles = new ArrayList<Resource>();
+	}
+
+	private static class Resource {
+		private final int type;
+		private final int id;
+		private String path;
+		private final List<Resource> children = new ArrayList<Resource>();
+		private final List<Policy> policies = new ArrayList<Policy>();
+
+		public Resource(int type, int id, String path) {
+			this.type = type;
+			this.id = id;
+			this.path = path;
+		}
+	}
+
+	private static class Policy {
+		private int policyId;
+		private int groupId;
+		private int epersonId;
+		private String holderName;
+	}
+
+	private static class Changes {
+		private final List<Integer> addIds = new ArrayList<Integer>();
+		private final List<Integer> updateIds = new ArrayList<Integer>();
+		private final List<Integer> deleteIds = new ArrayList<Integer>();
+	}
+}
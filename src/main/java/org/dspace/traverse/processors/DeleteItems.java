@@ -4,23 +4,42 @@
 package org.dspace.traverse.processors;
 
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.sql.SQLException;
+import java.util.Set;
 
 import org.dspace.authorize.AuthorizeException;
 import org.dspace.content.Collection;
 import org.dspace.content.Item;
 import org.dspace.core.Context;
 import org.dspace.traverse.AbstractItemProcessor;
+import org.dspace.traverse.BulkItemProcessor;
 import org.dspace.traverse.ItemProcessingException;
 
 /**
+ * Removes each item from its owning collection, deleting it unless it is
+ * mapped to other collections.
+ * <p>
+ * With --bulk, the IDs of the bitstreams marked deleted are appended to the
+ * file in the deleted.bitstreams system property, if set, e.g.
+ * -Ddeleted.bitstreams=/path/to/bitstreams.txt, so that CleanupAssetStore
+ * --ids can remove only their files.
+ * 
  * @author Rahul Khanna
  *
  */
-public class DeleteItems extends AbstractItemProcessor {
+public class DeleteItems extends AbstractItemProcessor implements BulkItemProcessor {
+
+	public static final String BITSTREAM_IDS_PROPERTY = "deleted.bitstreams";
 
 	private Context c;
 	private boolean isDryRun;
+	private BulkItemDeleter bulkDeleter = null;
+	private Writer bitstreamIdWriter = null;
 
 	
 	/* (non-Javadoc)
@@ -52,11 +71,60 @@ public class DeleteItems extends AbstractItemProcessor {
 			if (!isDryRun) {
 				owningCollection.removeItem(item);
 			}
-			print("DELETE %s (owner %s;%s)", itemHandle, owningCollection.getName(), owningCollection.getHandle()); 
+			printChange(owningCollection, "DELETE", "DELETE %s (owner %s;%s)", itemHandle, owningCollection.getName(),
+					owningCollection.getHandle());
 		} catch (SQLException | AuthorizeException | IOException e) {
 			throw new ItemProcessingException(e);
 		}
 
 	}
 
+	/**
+	 * Deletes many items directly in the database, only marking their
+	 * bitstreams deleted.
+	 */
+	@Override
+	public Set<Integer> processItemIds(int[] itemIds) throws ItemProcessingException {
+		try {
+			if (bulkDeleter == null) {
+				bulkDeleter = new BulkItemDeleter(c, isDryRun);
+				String bitstreamIdsFile = System.getProperty(BITSTREAM_IDS_PROPERTY);
+				if (bitstreamIdsFile != null && !isDryRun) {
+					bitstreamIdWriter = Files.newBufferedWriter(Paths.get(bitstreamIdsFile), StandardCharsets.UTF_8,
+							StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+				}
+			}
+			Set<Integer> skippedIds = bulkDeleter.delete(itemIds);
+			if (bitstreamIdWriter != null) {
+				for (int bitstreamId : bulkDeleter.getMarkedBitstreamIds()) {
+					bitstreamIdWriter.write(bitstreamId + "\n");
+				}
+				bitstreamIdWriter.flush();
+			}
+			return skippedIds;
+		} catch (SQLException | IOException e) {
+			throw new ItemProcessingException(e);
+		}
+	}
+
+	@Override
+	public void end() throws ItemProcessingException {
+		if (bitstreamIdWriter != null) {
+			try {
+				bitstreamIdWriter.close();
+			} catch (IOException e) {
+				throw new ItemProcessingException(e);
+			}
+		}
+		if (bulkDeleter != null) {
+			print("Deleted %d items and %d bundles, and marked %d bitstreams deleted. Removed %d items mapped to"
+					+ " other collections from their owning collection. Skipped %d versioned items.",
+					bulkDeleter.getItemCount(), bulkDeleter.getBundleCount(), bulkDeleter.getBitstreamCount(),
+					bulkDeleter.getUnmappedCount(), bulkDeleter.getSkippedCount());
+			if (!isDryRun && bulkDeleter.getItemCount() > 0) {
+				print("Run CleanupAssetStore to remove the files of deleted bitstreams, and update the discovery index.");
+			}
+		}
+	}
+
 }
@@ -0,0 +1,133 @@
+/**
+ * 
+ */
+package org.dspace.traverse.processors;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.content.Item;
+import org.dspace.content.Metadatum;
+import org.dspace.traverse.AbstractItemProcessor;
+import org.dspace.traverse.ItemProcessingException;
+
+/**
+ * Applies the regular expression substitutions in a file to the metadata of
+ * each item. The path of the file is read from the metadata.substitutions
+ * system property, e.g. -Dmetadata.substitutions=/path/to/substitutions.txt;
+ * see MetadataSubstitutions for its format.
+ * <p>
+ * A field's values are only rewritten, and the item's metadata only updated,
+ * if a substitution actually changes one of them. The number of values each
+ * substitution matched and changed is printed at the end of the traversal.
+ *
+ * @author Rahul Khanna
+ *
+ */
+public class MetadataFindReplace extends AbstractItemProcessor {
+
+	public static final String SUBSTITUTIONS_PROPERTY = "metadata.substitutions";
+
+	// shared by the instances on each worker thread so that counts are totalled
+	private static MetadataSubstitutions substitutions = null;
+	private static int nActiveInstances = 0;
+
+	/**
+	 * Each instance only touches the item it is given, using its own Context.
+	 */
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	@Override
+	public void begin() throws ItemProcessingException {
+		synchronized (MetadataFindReplace.class) {
+			if (substitutions == null) {
+				String substitutionsFile = System.getProperty(SUBSTITUTIONS_PROPERTY);
+				if (substitutionsFile == null) {
+					throw new ItemProcessingException("No substitutions file specified in the "
+							+ SUBSTITUTIONS_PROPERTY + " property.");
+				}
+				try {
+					substitutions = MetadataSubstitutions.load(Paths.get(substitutionsFile));
+				} catch (IOException e) {
+					throw new ItemProcessingException(e);
+				}
+				if (substitutions.isEmpty()) {
+					print("No substitutions in %s.", substitutionsFile);
+				}
+			}
+			nActiveInstances++;
+		}
+	}
+
+	@Override
+	public void end() throws ItemProcessingException {
+		synchronized (MetadataFindReplace.class) {
+			if (--nActiveInstances > 0 || substitutions == null) {
+				return;
+			}
+		}
+		for (MetadataSubstitutions.Substitution substitution : substitutions.getAll()) {
+			print("%s: %d values matched, %d changed", substitution, substitution.getMatchedCount(),
+					substitution.getChangedCount());
+		}
+	}
+
+	@Override
+	public void processItem(Item item) throws ItemProcessingException {
+		try {
+			boolean isChanged = false;
+			for (Map.Entry<String, List<MetadataSubstitutions.Substitution>> entry : substitutions.getByField()
+					.entrySet()) {
+				MetadataSubstitutions.Substitution first = entry.getValue().get(0);
+				String qualifier = "*".equals(first.getQualifier()) ? Item.ANY : first.getQualifier();
+				Metadatum[] values = item.getMetadata(first.getSchema(), first.getElement(), qualifier, Item.ANY);
+				if (values == null || values.length == 0) {
+					continue;
+				}
+
+				String[] newValues = new String[values.length];
+				boolean isFieldChanged = false;
+				for (int i = 0; i < values.length; i++) {
+					newValues[i] = values[i].value;
+					if (newValues[i] == null) {
+						continue;
+					}
+					for (MetadataSubstitutions.Substitution substitution : entry.getValue()) {
+						newValues[i] = substitution.apply(newValues[i]);
+					}
+					if (!newValues[i].equals(values[i].value)) {
+						isFieldChanged = true;
+						printChange(item, "UPDATE", "%s(%d) %s UPDATE: %s -> %s", item.getHandle(), item.getID(),
+								values[i].getField(), values[i].value, newValues[i]);
+					}
+				}
+
+				// rewrite all the field's values, in order, keeping each value's language and authority
+				if (isFieldChanged) {
+					item.clearMetadata(first.getSchema(), first.getElement(), qualifier, Item.ANY);
+					for (int i = 0; i < values.length; i++) {
+						item.addMetadata(values[i].schema, values[i].element, values[i].qualifier, values[i].language,
+								newValues[i], values[i].authority, values[i].confidence);
+					}
+					isChanged = true;
+				}
+			}
+
+			if (isChanged && !isDryRun) {
+				item.updateMetadata();
+			}
+		} catch (SQLException | AuthorizeException e) {
+			throw new ItemProcessingException(e);
+		} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+			// a replacement the check at load didn't catch
+			throw new ItemProcessingException(e);
+		}
+	}
+}
@@ -0,0 +1,257 @@
+/**
+ * 
+ */
+package org.dspace.traverse.processors;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A set of regular expression substitutions read from a file, one per line,
+ * in the form FIELD s/PATTERN/REPLACEMENT/FLAGS:
+ *
+ * <pre>
+ * # normalise an author name variant
+ * dc.contributor.author s/^Smith, J\.?$/Smith, John/
+ * # rewrite a URL prefix
+ * dc.identifier.uri s|^http://hdl.handle.net/|https://hdl.handle.net/|
+ * dc.description.* s/\s+/ /g
+ * </pre>
+ *
+ * Any character other than a letter, digit, backslash or whitespace can be
+ * used as the delimiter after s, and is escaped with a backslash where it
+ * appears in the pattern or replacement; in the pattern the escaped
+ * delimiter matches itself, even if it is a regular expression
+ * metacharacter such as |. The replacement can refer to groups as $1. Flags are g to replace every match instead of
+ * the first, and i to ignore case. A qualifier of * selects every qualifier of
+ * the element.
+ * <p>
+ * Patterns are compiled, and replacements checked, once when the file is
+ * loaded. Substitutions for the
+ * same field are applied to each value in the order they appear in the file.
+ *
+ * @author Rahul Khanna
+ *
+ */
+public class MetadataSubstitutions {
+
+	private final Map<String, List<Substitution>> byField = new LinkedHashMap<String, List<Substitution>>();
+	private final List<Substitution> all = new ArrayList<Substitution>();
+
+	public static MetadataSubstitutions load(Path file) throws IOException {
+		MetadataSubstitutions substitutions = new MetadataSubstitutions();
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (line.trim().length() == 0 || line.trim().startsWith("#")) {
+					continue;
+				}
+				try {
+					substitutions.add(line.trim());
+				} catch (IllegalArgumentException e) {
+					throw new IOException(String.format("%s line %d: %s", file, lineNumber, e.getMessage()), e);
+				}
+			}
+		}
+		return substitutions;
+	}
+
+	private void add(String line) {
+		String[] fields = line.split("\\s+", 2);
+		if (fields.length != 2) {
+			throw new IllegalArgumentException("Expected FIELD s/PATTERN/REPLACEMENT/FLAGS");
+		}
+		String[] parts = fields[0].split("\\.");
+		if (parts.length != 2 && parts.length != 3) {
+			throw new IllegalArgumentException("Invalid field: " + fields[0]);
+		}
+
+		String expression = fields[1];
+		if (expression.length() < 4 || expression.charAt(0) != 's') {
+			throw new IllegalArgumentException("Expected s/PATTERN/REPLACEMENT/FLAGS, not " + expression);
+		}
+		char delimiter = expression.charAt(1);
+		if (Character.isLetterOrDigit(delimiter) || Character.isWhitespace(delimiter) || delimiter == '\\') {
+			throw new IllegalArgumentException("Invalid delimiter: " + delimiter);
+		}
+		List<String> sections = splitExpression(expression.substring(2), delimiter);
+		if (sections.size() != 3) {
+			throw new IllegalArgumentException("Expected s/PATTERN/REPLACEMENT/FLAGS, not " + expression);
+		}
+
+		String flags = sections.get(2);
+		int patternFlags = 0;
+		boolean isGlobal = false;
+		for (char flag : flags.toCharArray()) {
+			if (flag == 'g') {
+				isGlobal = true;
+			} else if (flag == 'i') {
+				patternFlags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+			} else {
+				throw new IllegalArgumentException("Unknown flag: " + flag);
+			}
+		}
+
+		Pattern pattern;
+		try {
+			pattern = Pattern.compile(sections.get(0), patternFlags);
+		} catch (PatternSyntaxException e) {
+			throw new IllegalArgumentException("Invalid pattern: " + e.getMessage());
+		}
+		checkReplacement(pattern, sections.get(1));
+		Substitution substitution = new Substitution(fields[0], parts[0], parts[1], parts.length == 3 ? parts[2]
+				: null, expression, pattern, sections.get(1), isGlobal);
+		List<Substitution> fieldSubstitutions = byField.get(fields[0]);
+		if (fieldSubstitutions == null) {
+			fieldSubstitutions = new ArrayList<Substitution>();
+			byField.put(fields[0], fieldSubstitutions);
+		}
+		fieldSubstitutions.add(substitution);
+		all.add(substitution);
+	}
+
+	/**
+	 * Splits the part of an s/// expression after the s at unescaped
+	 * delimiters. Escaped delimiters are kept escaped in the pattern, so that
+	 * they match literally, and have the backslash removed in the replacement
+	 * and flags.
+	 */
+	private static List<String> splitExpression(String str, char delimiter) {
+		List<String> sections = new ArrayList<String>();
+		StringBuilder section = new StringBuilder();
+		for (int i = 0; i < str.length(); i++) {
+			char ch = str.charAt(i);
+			if (ch == '\\' && i + 1 < str.length() && str.charAt(i + 1) == delimiter) {
+				if (sections.isEmpty()) {
+					section.append('\\');
+				}
+				section.append(delimiter);
+				i++;
+			} else if (ch == delimiter) {
+				sections.add(section.toString());
+				section.setLength(0);
+			} else {
+				section.append(ch);
+			}
+		}
+		sections.add(section.toString());
+		return sections;
+	}
+
+	/**
+	 * Checks that a replacement only refers to groups the pattern has and has
+	 * no trailing backslash, by applying it to a pattern with the same groups
+	 * that always matches, so that errors are reported when the file is
+	 * loaded rather than for each value.
+	 */
+	private static void checkReplacement(Pattern pattern, String replacement) {
+		try {
+			Pattern.compile("(?:" + pattern.pattern() + ")|", pattern.flags()).matcher("").replaceFirst(replacement);
+		} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Invalid replacement: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the substitutions grouped by field, in the order the fields
+	 * first appear in the file.
+	 */
+	public Map<String, List<Substitution>> getByField() {
+		return Collections.unmodifiableMap(byField);
+	}
+
+	public List<Substitution> getAll() {
+		return Collections.unmodifiableList(all);
+	}
+
+	public boolean isEmpty() {
+		return all.isEmpty();
+	}
+
+	/**
+	 * A precompiled substitution for the values of a field, and the number of
+	 * values it has matched and changed.
+	 */
+	public static class Substitution {
+		private final String field;
+		private final String schema;
+		private final String element;
+		private final String qualifier;
+		private final String expression;
+		private final Pattern pattern;
+		private final String replacement;
+		private final boolean isGlobal;
+
+		private final AtomicLong nMatched = new AtomicLong();
+		private final AtomicLong nChanged = new AtomicLong();
+
+		private Substitution(String field, String schema, String element, String qualifier, String expression,
+				Pattern pattern, String replacement, boolean isGlobal) {
+			this.field = field;
+			this.schema = schema;
+			this.element = element;
+			this.qualifier = qualifier;
+			this.expression = expression;
+			this.pattern = pattern;
+			this.replacement = replacement;
+			this.isGlobal = isGlobal;
+		}
+
+		public String getSchema() {
+			return schema;
+		}
+
+		public String getElement() {
+			return element;
+		}
+
+		public String getQualifier() {
+			return qualifier;
+		}
+
+		/**
+		 * Applies the substitution to a value, returning the value unchanged if
+		 * the pattern doesn't match it.
+		 */
+		public String apply(String value) {
+			Matcher matcher = pattern.matcher(value);
+			if (!matcher.find()) {
+				return value;
+			}
+			nMatched.incrementAndGet();
+			matcher.reset();
+			String replaced = isGlobal ? matcher.replaceAll(replacement) : matcher.replaceFirst(replacement);
+			if (!replaced.equals(value)) {
+				nChanged.incrementAndGet();
+			}
+			return replaced;
+		}
+
+		public long getMatchedCount() {
+			return nMatched.get();
+		}
+
+		public long getChangedCount() {
+			return nChanged.get();
+		}
+
+		@Override
+		public String toString() {
+			return field + " " + expression;
+		}
+	}
+}
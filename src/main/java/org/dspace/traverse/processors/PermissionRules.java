@@ -0,0 +1,213 @@
+/**
+ * 
+ */
+package org.dspace.traverse.processors;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.dspace.core.Constants;
+
+/**
+ * A set of access rules read from a rules file, one rule per line:
+ * 
+ * <pre>
+ * # bundle NAME-PATTERN ACTION GROUP
+ * bundle ORIGINAL READ Anonymous
+ * bundle THUMBNAIL|BRANDED_PREVIEW READ Anonymous
+ * # collection ACTION GROUP
+ * collection DEFAULT_BITSTREAM_READ Anonymous
+ * </pre>
+ * 
+ * A bundle rule grants the group the action on every bundle whose whole name
+ * matches the regular expression, and on the bundle's bitstreams. A collection
+ * rule grants the group the action on every collection, e.g. to set the
+ * default policies of new items and bitstreams. Fields are separated by
+ * whitespace; group names containing spaces go last and are used as is.
+ * <p>
+ * Patterns that are plain names are looked up in a map. The rules matching a
+ * bundle name are worked out once per distinct name and remembered, as
+ * repositories only have a handful of bundle names.
+ * <p>
+ * Two rules that grant the same action on a bundle conflict. Conflicts
+ * involving a plain name, with another rule for the name or a pattern that
+ * matches it, are reported when the file is loaded. Whether two patterns
+ * overlap can't be known until a bundle name matches both, so those conflicts
+ * are reported by getBundleRules.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class PermissionRules {
+
+	private static final Pattern REGEX_CHARS = Pattern.compile("[\\\\^$.|?*+()\\[\\]{}]");
+
+	private final Map<String, List<Rule>> exactBundleRules = new HashMap<String, List<Rule>>();
+	private final List<Rule> patternBundleRules = new ArrayList<Rule>();
+	private final List<Rule> collectionRules = new ArrayList<Rule>();
+	private final Map<String, List<Rule>> matchCache = new HashMap<String, List<Rule>>();
+
+	public static PermissionRules load(Path rulesFile) throws IOException {
+		PermissionRules rules = new PermissionRules();
+		try (BufferedReader reader = Files.newBufferedReader(rulesFile, StandardCharsets.UTF_8)) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				try {
+					rules.add(line);
+				} catch (IllegalArgumentException e) {
+					throw new IOException(String.format("%s line %d: %s", rulesFile, lineNumber, e.getMessage()), e);
+				}
+			}
+		}
+		try {
+			checkConflicts(rules.collectionRules, "collections");
+			// exact names are known up front, so check them against each other and the patterns now
+			for (String bundleName : rules.exactBundleRules.keySet()) {
+				rules.getBundleRules(bundleName);
+			}
+		} catch (IllegalStateException e) {
+			throw new IOException(rulesFile + ": " + e.getMessage(), e);
+		}
+		return rules;
+	}
+
+	private void add(String line) {
+		String[] fields = line.split("\\s+", 2);
+		if (fields[0].equalsIgnoreCase("bundle")) {
+			String[] args = split(fields, 3, "bundle NAME-PATTERN ACTION GROUP");
+			Rule rule = new Rule(args[0], parseAction(args[1]), args[2]);
+			if (REGEX_CHARS.matcher(args[0]).find()) {
+				try {
+					rule.pattern = Pattern.compile(args[0]);
+				} catch (PatternSyntaxException e) {
+					throw new IllegalArgumentException("Invalid bundle name pattern: " + e.getMessage());
+				}
+				patternBundleRules.add(rule);
+			} else {
+				List<Rule> exactRules = exactBundleRules.get(args[0]);
+				if (exactRules == null) {
+					exactRules = new ArrayList<Rule>();
+					exactBundleRules.put(args[0], exactRules);
+				}
+				exactRules.add(rule);
+			}
+		} else if (fields[0].equalsIgnoreCase("collection")) {
+			String[] args = split(fields, 2, "collection ACTION GROUP");
+			collectionRules.add(new Rule(null, parseAction(args[0]), args[1]));
+		} else {
+			throw new IllegalArgumentException("Unknown rule type: " + fields[0]);
+		}
+	}
+
+	private static String[] split(String[] fields, int nArgs, String usage) {
+		String[] args = fields.length > 1 ? fields[1].split("\\s+", nArgs) : new String[0];
+		if (args.length != nArgs) {
+			throw new IllegalArgumentException("Expected " + usage);
+		}
+		return args;
+	}
+
+	private static int parseAction(String actionText) {
+		int action = Constants.getActionID(actionText.toUpperCase());
+		if (action < 0) {
+			throw new IllegalArgumentException("Unknown action: " + actionText);
+		}
+		return action;
+	}
+
+	/**
+	 * Returns the rules that apply to bundles with the specified name, in the
+	 * order they appear in the rules file.
+	 * 
+	 * @throws IllegalStateException
+	 *             if more than one pattern rule grants the same action on the
+	 *             bundle, as each would undo the other's change
+	 */
+	public synchronized List<Rule> getBundleRules(String bundleName) {
+		if (bundleName == null) {
+			return Collections.emptyList();
+		}
+		List<Rule> matches = matchCache.get(bundleName);
+		if (matches == null) {
+			matches = new ArrayList<Rule>();
+			List<Rule> exactRules = exactBundleRules.get(bundleName);
+			if (exactRules != null) {
+				matches.addAll(exactRules);
+			}
+			for (Rule rule : patternBundleRules) {
+				if (rule.pattern.matcher(bundleName).matches()) {
+					matches.add(rule);
+				}
+			}
+			checkConflicts(matches, "bundle " + bundleName);
+			matches = Collections.unmodifiableList(matches);
+			matchCache.put(bundleName, matches);
+		}
+		return matches;
+	}
+
+	public List<Rule> getCollectionRules() {
+		return Collections.unmodifiableList(collectionRules);
+	}
+
+	private static void checkConflicts(List<Rule> rules, String target) {
+		for (int i = 0; i < rules.size(); i++) {
+			for (int j = i + 1; j < rules.size(); j++) {
+				if (rules.get(i).action == rules.get(j).action) {
+					throw new IllegalStateException(String.format("Rules %s and %s both grant %s on %s", rules.get(i),
+							rules.get(j), Constants.actionText[rules.get(i).action], target));
+				}
+			}
+		}
+	}
+
+	public boolean isEmpty() {
+		return exactBundleRules.isEmpty() && patternBundleRules.isEmpty() && collectionRules.isEmpty();
+	}
+
+	/**
+	 * Grants a group an action on the resources a rule applies to.
+	 */
+	public static class Rule {
+		private final String bundleNamePattern;
+		private final int action;
+		private final String groupName;
+		private Pattern pattern;
+
+		private Rule(String bundleNamePattern, int action, String groupName) {
+			this.bundleNamePattern = bundleNamePattern;
+			this.action = action;
+			this.groupName = groupName;
+		}
+
+		public int getAction() {
+			return action;
+		}
+
+		public String getGroupName() {
+			return groupName;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("[%s%s %s]", bundleNamePattern != null ? bundleNamePattern + " " : "",
+					Constants.actionText[action], groupName);
+		}
+	}
+}
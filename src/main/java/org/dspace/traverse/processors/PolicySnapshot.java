@@ -0,0 +1,256 @@
+/**
+ * 
+ */
+package org.dspace.traverse.processors;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dspace.authorize.ResourcePolicy;
+import org.dspace.content.Bitstream;
+import org.dspace.content.Bundle;
+import org.dspace.content.DSpaceObject;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+import org.dspace.traverse.SqlUtil;
+
+/**
+ * The resource policies of a set of bundles and their bitstreams, loaded with
+ * a single query instead of one AuthorizeManager.getPolicies call per
+ * resource. Each policy holds just the columns needed to decide what to
+ * change; the ResourcePolicy itself is only loaded when it is changed.
+ * <p>
+ * Policies are kept in policy ID order, including those from
+ * fromResourcePolicies, so that the policy kept when a resource has several
+ * for an action doesn't depend on the order the database returns them in.
+ * Changes made to the policies must be applied to the snapshot too, so that a
+ * resource visited again, e.g. a bitstream in two bundles, sees them.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class PolicySnapshot {
+
+	private final Map<Integer, List<Policy>> bundlePolicies = new HashMap<Integer, List<Policy>>();
+	private final Map<Integer, List<Policy>> bitstreamPolicies = new HashMap<Integer, List<Policy>>();
+
+	private PolicySnapshot() {
+	}
+
+	/**
+	 * Loads the policies of the bundles and all their bitstreams.
+	 */
+	public static PolicySnapshot load(Context c, List<Bundle> bundles) throws SQLException {
+		PolicySnapshot snapshot = new PolicySnapshot();
+		List<Integer> bundleIds = new ArrayList<Integer>();
+		List<Integer> bitstreamIds = new ArrayList<Integer>();
+		for (Bundle bundle : bundles) {
+			bundleIds.add(bundle.getID());
+			snapshot.bundlePolicies.put(bundle.getID(), new ArrayList<Policy>());
+			for (Bitstream bitstream : bundle.getBitstreams()) {
+				bitstreamIds.add(bitstream.getID());
+				snapshot.bitstreamPolicies.put(bitstream.getID(), new ArrayList<Policy>());
+			}
+		}
+		if (bundleIds.isEmpty()) {
+			return snapshot;
+		}
+
+		// nearly always a single query; only items with more than 1000 bitstreams need more
+		int nChunks = Math.max(1, (bitstreamIds.size() + SqlUtil.MAX_IN_LIST - 1) / SqlUtil.MAX_IN_LIST);
+		for (int i = 0; i < nChunks; i++) {
+			List<Integer> bitstreamChunk = bitstreamIds.subList(i * SqlUtil.MAX_IN_LIST,
+					Math.min(bitstreamIds.size(), (i + 1) * SqlUtil.MAX_IN_LIST));
+			StringBuilder query = new StringBuilder("SELECT resourcepolicy.policy_id, resourcepolicy.resource_type_id,"
+					+ " resourcepolicy.resource_id, resourcepolicy.action_id, resourcepolicy.epersongroup_id,"
+					+ " resourcepolicy.eperson_id, epersongroup.name AS group_name, eperson.email FROM resourcepolicy"
+					+ " LEFT JOIN epersongroup ON epersongroup.eperson_group_id = resourcepolicy.epersongroup_id"
+					+ " LEFT JOIN eperson ON eperson.eperson_id = resourcepolicy.eperson_id WHERE ");
+			List<Object> params = new ArrayList<Object>();
+			if (i == 0) {
+				query.append("(resourcepolicy.resource_type_id = ? AND resourcepolicy.resource_id IN ")
+						.append(SqlUtil.placeholders(bundleIds.size())).append(")");
+				params.add(Constants.BUNDLE);
+				params.addAll(bundleIds);
+			}
+			if (!bitstreamChunk.isEmpty()) {
+				if (i == 0) {
+					query.append(" OR ");
+				}
+				query.append("(resourcepolicy.resource_type_id = ? AND resourcepolicy.resource_id IN ")
+						.append(SqlUtil.placeholders(bitstreamChunk.size())).append(")");
+				params.add(Constants.BITSTREAM);
+				params.addAll(bitstreamChunk);
+			}
+			query.append(" ORDER BY resourcepolicy.policy_id");
+			snapshot.addRows(DatabaseManager.query(c, query.toString(), params.toArray()));
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Returns the policies of a resource from a list already loaded, e.g. by
+	 * AuthorizeManager.getPolicies, in policy ID order.
+	 */
+	public static List<Policy> fromResourcePolicies(List<ResourcePolicy> resourcePolicies) {
+		List<Policy> policies = new ArrayList<Policy>(resourcePolicies.size());
+		for (ResourcePolicy resourcePolicy : resourcePolicies) {
+			policies.add(new Policy(resourcePolicy));
+		}
+		Collections.sort(policies, new Comparator<Policy>() {
+			@Override
+			public int compare(Policy p1, Policy p2) {
+				return Integer.compare(p1.policyId, p2.policyId);
+			}
+		});
+		return policies;
+	}
+
+	private void addRows(TableRowIterator rows) throws SQLException {
+		try {
+			while (rows.hasNext()) {
+				TableRow row = rows.next();
+				Map<Integer, List<Policy>> policies = row.getIntColumn("resource_type_id") == Constants.BUNDLE
+						? bundlePolicies : bitstreamPolicies;
+				List<Policy> resourcePolicies = policies.get(row.getIntColumn("resource_id"));
+				if (resourcePolicies != null) {
+					resourcePolicies.add(new Policy(row));
+				}
+			}
+		} finally {
+			rows.close();
+		}
+	}
+
+	/**
+	 * Returns the policies of a bundle or bitstream in this snapshot, in policy
+	 * ID order, or null if the resource isn't in the snapshot.
+	 */
+	public List<Policy> getPolicies(DSpaceObject resource) {
+		if (resource.getType() == Constants.BUNDLE) {
+			return bundlePolicies.get(resource.getID());
+		} else if (resource.getType() == Constants.BITSTREAM) {
+			return bitstreamPolicies.get(resource.getID());
+		}
+		return null;
+	}
+
+	/**
+	 * Records a policy added to a resource in the snapshot. resourcePolicy is
+	 * the policy created, or null in a dry run, where the policy has no ID and
+	 * is recorded with an ID of -1.
+	 */
+	public void recordAdded(DSpaceObject resource, ResourcePolicy resourcePolicy, int action, int groupId,
+			String groupName) {
+		List<Policy> policies = getPolicies(resource);
+		if (policies != null) {
+			Policy policy = resourcePolicy != null ? new Policy(resourcePolicy)
+					: new Policy(-1, action, groupId, groupName);
+			policy.holderName = groupName;
+			policies.add(policy);
+		}
+	}
+
+	/**
+	 * Records in the snapshot that a policy now grants its action to a group.
+	 */
+	public void recordUpdated(Policy policy, int groupId, String groupName) {
+		policy.groupId = groupId;
+		policy.epersonId = -1;
+		policy.holderName = groupName;
+	}
+
+	/**
+	 * Records a policy deleted from a resource in the snapshot.
+	 */
+	public void recordDeleted(DSpaceObject resource, Policy policy) {
+		List<Policy> policies = getPolicies(resource);
+		if (policies != null) {
+			policies.remove(policy);
+		}
+	}
+
+	/**
+	 * A resource policy, either read from a snapshot query or wrapping a
+	 * ResourcePolicy that has already been loaded.
+	 */
+	public static class Policy {
+		private final int policyId;
+		private final int action;
+		private int groupId;
+		private int epersonId;
+		private String holderName;
+		private ResourcePolicy resourcePolicy;
+
+		private Policy(int policyId, int action, int groupId, String holderName) {
+			this.policyId = policyId;
+			this.action = action;
+			this.groupId = groupId;
+			this.epersonId = -1;
+			this.holderName = holderName;
+		}
+
+		private Policy(TableRow row) {
+			this.policyId = row.getIntColumn("policy_id");
+			this.action = row.getIntColumn("action_id");
+			this.groupId = row.isColumnNull("epersongroup_id") ? -1 : row.getIntColumn("epersongroup_id");
+			this.epersonId = row.isColumnNull("eperson_id") ? -1 : row.getIntColumn("eperson_id");
+			this.holderName = groupId != -1 ? row.getStringColumn("group_name") : row.getStringColumn("email");
+		}
+
+		private Policy(ResourcePolicy resourcePolicy) {
+			this.policyId = resourcePolicy.getID();
+			this.action = resourcePolicy.getAction();
+			this.groupId = resourcePolicy.getGroupID();
+			this.epersonId = resourcePolicy.getEPersonID();
+			this.resourcePolicy = resourcePolicy;
+		}
+
+		public int getPolicyId() {
+			return policyId;
+		}
+
+		public int getAction() {
+			return action;
+		}
+
+		public int getGroupId() {
+			return groupId;
+		}
+
+		public int getEPersonId() {
+			return epersonId;
+		}
+
+		/**
+		 * Returns the name of the group, or the e-person, the policy grants the
+		 * action to.
+		 */
+		public String getHolderName(Context c) throws SQLException {
+			if (holderName == null) {
+				ResourcePolicy policy = getResourcePolicy(c);
+				holderName = policy.getGroup() != null ? policy.getGroup().getName() : policy.getEPerson().getName();
+			}
+			return holderName;
+		}
+
+		/**
+		 * Returns the ResourcePolicy, loading it if this policy was read from a
+		 * snapshot. Not available for a policy added in a dry run.
+		 */
+		public ResourcePolicy getResourcePolicy(Context c) throws SQLException {
+			if (resourcePolicy == null) {
+				resourcePolicy = ResourcePolicy.find(c, policyId);
+			}
+			return resourcePolicy;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * 
+ */
+package org.dspace.traverse.processors;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.content.Bitstream;
+import org.dspace.content.Bundle;
+import org.dspace.content.Collection;
+import org.dspace.content.Item;
+import org.dspace.dsrun.LookupCache;
+import org.dspace.eperson.Group;
+import org.dspace.traverse.ItemProcessingException;
+
+/**
+ * Applies every rule in a rules file to each item and collection in a single
+ * traversal, instead of one traversal per hard-coded processor. The path of
+ * the rules file is read from the permission.rules system property, e.g.
+ * -Dpermission.rules=/path/to/rules.txt; see PermissionRules for its format.
+ * 
+ * @author Rahul Khanna
+ *
+ */
+public class RuleBasedPermissions extends AbstractPermissionsProcessor {
+
+	public static final String RULES_PROPERTY = "permission.rules";
+
+	private PermissionRules rules;
+
+	/**
+	 * Each instance only touches the item it is given, using its own Context.
+	 */
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	@Override
+	public void begin() throws ItemProcessingException {
+		String rulesFile = System.getProperty(RULES_PROPERTY);
+		if (rulesFile == null) {
+			throw new ItemProcessingException("No rules file specified in the " + RULES_PROPERTY + " property.");
+		}
+		try {
+			rules = PermissionRules.load(Paths.get(rulesFile));
+		} catch (IOException e) {
+			throw new ItemProcessingException(e);
+		}
+		if (rules.isEmpty()) {
+			print("No rules in %s.", rulesFile);
+		}
+	}
+
+	@Override
+	public void processItem(Item item) throws ItemProcessingException {
+		try {
+			List<Bundle> bundles = new ArrayList<Bundle>();
+			for (Bundle bundle : item.getBundles()) {
+				if (!rules.getBundleRules(bundle.getName()).isEmpty()) {
+					bundles.add(bundle);
+				}
+			}
+			if (bundles.isEmpty()) {
+				return;
+			}
+
+			PolicySnapshot policies = PolicySnapshot.load(c, bundles);
+			for (Bundle bundle : bundles) {
+				for (PermissionRules.Rule rule : rules.getBundleRules(bundle.getName())) {
+					Group group = findGroup(rule);
+					updateResourcePolicies(bundle, group, rule.getAction(), policies);
+					for (Bitstream bitstream : bundle.getBitstreams()) {
+						updateResourcePolicies(bitstream, group, rule.getAction(), policies);
+					}
+				}
+			}
+		} catch (SQLException | AuthorizeException | IllegalStateException e) {
+			throw new ItemProcessingException(e);
+		}
+	}
+
+	@Override
+	public void processCollection(Collection collection) throws ItemProcessingException {
+		try {
+			for (PermissionRules.Rule rule : rules.getCollectionRules()) {
+				updateResourcePolicies(collection, findGroup(rule), rule.getAction());
+			}
+		} catch (SQLException | AuthorizeException e) {
+			throw new ItemProcessingException(e);
+		}
+	}
+
+	private Group findGroup(PermissionRules.Rule rule) throws SQLException, ItemProcessingException {
+		Group group = LookupCache.forContext(c).findGroupByName(rule.getGroupName());
+		if (group == null) {
+			throw new ItemProcessingException("Group not found: " + rule.getGroupName());
+		}
+		return group;
+	}
+}